@@ -9,11 +9,56 @@ repositories {
     mavenCentral()
 }
 
+// JMH benchmarks live in src/jmh/java and are only built by the jmh task
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+val jmhVersion = "1.37"
+
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:$jmhVersion")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
 }
 
 tasks.test {
     useJUnitPlatform()
 }
+
+// Runs the benchmarks and writes the results as JSON so builds can be compared.
+// Select benchmarks with -Pjmh.include=<regex>, e.g. -Pjmh.include=DiskBenchmark
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks in src/jmh/java"
+
+    val results = layout.buildDirectory.file("reports/jmh/results.json")
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args("-rf", "json", "-rff", results.get().asFile.path)
+    providers.gradleProperty("jmh.include").orNull?.let { args(it) }
+    outputs.file(results)
+    outputs.upToDateWhen { false }
+
+    doFirst {
+        results.get().asFile.parentFile.mkdirs()
+    }
+}
+
+// Drives one file system from many concurrent clients and prints throughput
+// and latency percentiles.  Set the load with -PloadTest.clients=<n> and
+// -PloadTest.operations=<n>; clients run on virtual threads on Java 21 and later
+tasks.register<JavaExec>("loadTest") {
+    group = "benchmark"
+    description = "Runs the concurrent client load harness in src/jmh/java"
+
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("filesystem.LoadHarness")
+    args(providers.gradleProperty("loadTest.clients").getOrElse("10000"),
+         providers.gradleProperty("loadTest.operations").getOrElse("20"))
+}
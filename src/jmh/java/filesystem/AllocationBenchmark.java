@@ -0,0 +1,107 @@
+package filesystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Cost of giving a file new blocks, through <code>allocateBlocksForFile</code>,
+ * on a disk that is already partly full.  The used part of the disk is left
+ * with holes so the allocation policies have to search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark {
+    /**
+     * The fill files use at most this many inodes
+     */
+    private static final int MAX_FILL_FILES = 512;
+
+    @Param({"0", "50", "90"})
+    public int fillPercent;
+
+    @Param({"NEXT_FIT", "BEST_FIT_EXTENT"})
+    public AllocationPolicy policy;
+
+    @Param({"1", "8"})
+    public int blocksPerWrite;
+
+    private Path image;
+    private FileSystem fileSystem;
+    private int fd;
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void fill() throws IOException {
+        image = Files.createTempFile("allocation-benchmark", ".dsk");
+        fileSystem = FileSystem.format(image.toString());
+        fileSystem.setDurabilityMode(DurabilityMode.NONE);
+        fileSystem.setAllocationPolicy(policy);
+
+        int numBlocks = fileSystem.getGeometry().getNumBlocks();
+        int blockSize = fileSystem.getGeometry().getBlockSize();
+        int target = (int) ((long) numBlocks * fillPercent / 100);
+        int blocksPerFile = Math.max(1, target / MAX_FILL_FILES);
+        int numFiles = target / blocksPerFile;
+
+        // fill the disk, then free every other file to scatter holes over it
+        for (int i = 0; i < numFiles; i++) {
+            writeFile("fill-" + i, blocksPerFile * blockSize);
+        }
+        for (int i = 1; i < numFiles; i += 2) {
+            fileSystem.delete("fill-" + i);
+        }
+        // and take the same amount back with one large file, as far as the
+        // policy leaves holes behind
+        int used = numBlocks - fileSystem.getFragmentationReport().getFreeBlocks();
+        if (target > used) {
+            writeFile("ballast", (target - used) * blockSize);
+        }
+
+        fd = fileSystem.create("target");
+        data = new byte[blocksPerWrite * blockSize];
+    }
+
+    private void writeFile(String fileName, int size) throws IOException {
+        int fileDescriptor = fileSystem.create(fileName);
+        fileSystem.write(fileDescriptor, new byte[size], 0, size);
+        fileSystem.close(fileDescriptor);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        fileSystem.unmount();
+        Files.deleteIfExists(image);
+    }
+
+    /**
+     * Allocates <code>blocksPerWrite</code> blocks and returns them, so the
+     * fill level stays the same from one invocation to the next
+     */
+    @Benchmark
+    public int allocateAndRelease() throws IOException {
+        int written = fileSystem.pwrite(fd, 0, data, 0, data.length);
+        fileSystem.truncate(fd, 0);
+        return written;
+    }
+}
@@ -0,0 +1,106 @@
+package filesystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Raw cost of the <code>Disk</code> transfers everything else is built on:
+ * one inode and one data block at a time, without any cache in front.
+ * The <code>Into</code> variants reuse the caller's <code>INode</code> and a
+ * pooled direct buffer, and should not allocate at all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiskBenchmark {
+    private Path image;
+    private Disk disk;
+    private INode inode;
+    private byte[] block;
+    private INode target;
+    private BufferPool buffers;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void format() throws IOException {
+        image = Files.createTempFile("disk-benchmark", ".dsk");
+        disk = new Disk(image.toString());
+        disk.format();
+
+        inode = new INode();
+        inode.setFileName("benchmark.txt");
+        inode.setSize(Disk.BLOCK_SIZE);
+        inode.setBlockPointer(0, 0);
+        block = new byte[disk.getBlockSize()];
+        target = new INode();
+        buffers = new BufferPool(disk.getBlockSize(), 1, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        disk.close();
+        Files.deleteIfExists(image);
+    }
+
+    /**
+     * Walks over every inode or block so the benchmarks do not keep hitting
+     * the same page of the mapping
+     */
+    private int nextIndex(int limit) {
+        next = (next + 1) % limit;
+        return next;
+    }
+
+    @Benchmark
+    public INode readInode() throws IOException {
+        return disk.readInode(nextIndex(disk.getNumInodes()));
+    }
+
+    @Benchmark
+    public INode readInodeInto() throws IOException {
+        disk.readInode(nextIndex(disk.getNumInodes()), target);
+        return target;
+    }
+
+    @Benchmark
+    public void writeInode() throws IOException {
+        disk.writeInode(inode, nextIndex(disk.getNumInodes()));
+    }
+
+    @Benchmark
+    public byte[] readDataBlock() throws IOException {
+        return disk.readDataBlock(nextIndex(disk.getNumBlocks()));
+    }
+
+    @Benchmark
+    public void readDataBlockInto() throws IOException {
+        ByteBuffer buffer = buffers.acquire();
+        disk.readDataBlock(nextIndex(disk.getNumBlocks()), buffer);
+        buffers.release(buffer);
+    }
+
+    @Benchmark
+    public void writeDataBlock() throws IOException {
+        disk.writeDataBlock(block, nextIndex(disk.getNumBlocks()));
+    }
+}
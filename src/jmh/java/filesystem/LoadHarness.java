@@ -0,0 +1,224 @@
+package filesystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Load test driving one file system from many concurrent clients, each on
+ * a thread of its own, doing a mix of creates, reads, writes and deletes
+ * on files of a few dozen bytes to a few blocks.  Prints the throughput and
+ * the latency percentiles of each kind of operation.
+ *
+ * Clients run on virtual threads when the JVM has them and on platform
+ * threads otherwise, so the same harness measures both.
+ *
+ * Usage: <code>LoadHarness [clients] [operations per client]</code>,
+ * 10,000 clients doing 20 operations each by default.  A run in which any
+ * operation failed reports the first failure and exits with an error.
+ */
+public class LoadHarness {
+    public static final int DEFAULT_CLIENTS = 10_000;
+    public static final int DEFAULT_OPERATIONS = 20;
+    public static final int MAX_FILE_SIZE = 4096;
+
+    enum Operation { CREATE, READ, WRITE, DELETE }
+
+    private final FileSystem fileSystem;
+    private final int clients;
+    private final int operations;
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicReference<Exception> firstError = new AtomicReference<>();
+
+    LoadHarness(FileSystem fileSystem, int clients, int operations) {
+        this.fileSystem = fileSystem;
+        this.clients = clients;
+        this.operations = operations;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram(operation.name().toLowerCase()));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_OPERATIONS;
+
+        // room for one file per client at the largest size
+        int blocksPerFile = MAX_FILE_SIZE / Disk.BLOCK_SIZE;
+        int numBlocks = (clients * blocksPerFile + 1024 + Byte.SIZE - 1) / Byte.SIZE * Byte.SIZE;
+        DiskGeometry geometry = new DiskGeometry(Disk.BLOCK_SIZE, numBlocks, clients + 64);
+
+        Path image = Files.createTempFile("load-harness", ".dsk");
+        try {
+            FileSystem fileSystem = FileSystem.format(image.toString(), geometry);
+            LoadHarness harness = new LoadHarness(fileSystem, clients, operations);
+            harness.run();
+            fileSystem.unmount();
+            harness.failOnErrors();
+        } finally {
+            Files.deleteIfExists(image);
+        }
+    }
+
+    void run() throws InterruptedException {
+        ExecutorService executor = virtualThreadExecutor();
+        String threads = "virtual";
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool();
+            threads = "platform";
+        }
+
+        CountDownLatch ready = new CountDownLatch(clients);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < clients; i++) {
+            int client = i;
+            executor.execute(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                    runClient(client);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        ready.await();
+
+        long begin = System.nanoTime();
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - begin;
+
+        report(threads, elapsed);
+    }
+
+    /**
+     * One client's session:  it keeps at most one file of its own and
+     * creates, reads, rewrites or deletes it at random
+     */
+    private void runClient(int client) {
+        Random random = new Random(client);
+        byte[] data = new byte[MAX_FILE_SIZE];
+        byte[] buffer = new byte[MAX_FILE_SIZE];
+        Arrays.fill(data, (byte) client);
+        String name = "client" + client;
+        int size = -1;
+
+        for (int i = 0; i < operations; i++) {
+            Operation operation;
+            if (size < 0) {
+                operation = Operation.CREATE;
+            } else {
+                int choice = random.nextInt(10);
+                operation = choice < 5 ? Operation.READ : choice < 8 ? Operation.WRITE : Operation.DELETE;
+            }
+
+            long begin = System.nanoTime();
+            try {
+                switch (operation) {
+                    case CREATE: {
+                        size = 32 + random.nextInt(MAX_FILE_SIZE - 32);
+                        int fd = fileSystem.create(name);
+                        fileSystem.pwrite(fd, 0, data, 0, size);
+                        fileSystem.close(fd);
+                        break;
+                    }
+                    case READ: {
+                        int fd = fileSystem.open(name, OpenMode.READ);
+                        int bytesRead = fileSystem.pread(fd, 0, buffer, 0, buffer.length);
+                        fileSystem.close(fd);
+                        if (bytesRead != size || buffer[size - 1] != (byte) client) {
+                            throw new IOException("LoadHarness: client " + client + " read back the wrong bytes");
+                        }
+                        break;
+                    }
+                    case WRITE: {
+                        int position = random.nextInt(size);
+                        int fd = fileSystem.open(name, OpenMode.WRITE);
+                        fileSystem.pwrite(fd, position, data, 0, size - position);
+                        fileSystem.close(fd);
+                        break;
+                    }
+                    default:
+                        fileSystem.delete(name);
+                        size = -1;
+                        break;
+                }
+                latencies.get(operation).recordSince(begin);
+            } catch (IOException | RuntimeException e) {
+                recordError(e);
+            }
+        }
+
+        if (size >= 0) {
+            try {
+                fileSystem.delete(name);
+            } catch (IOException e) {
+                recordError(e);
+            }
+        }
+    }
+
+    private void report(String threads, long elapsedNanos) {
+        long total = 0;
+        for (LatencyHistogram histogram : latencies.values()) {
+            total += histogram.getCount();
+        }
+        double seconds = elapsedNanos / 1e9;
+
+        System.out.printf("%,d clients on %s threads, %,d operations in %.2f s: %,.0f operations/s, %,d errors%n",
+                clients, threads, total, seconds, total / seconds, errors.get());
+        System.out.printf("%-8s %10s %10s %10s %10s %10s%n", "", "count", "p50 us", "p99 us", "p99.9 us", "max us");
+        for (LatencyHistogram histogram : latencies.values()) {
+            System.out.printf("%-8s %,10d %,10d %,10d %,10d %,10d%n", histogram.getName(), histogram.getCount(),
+                    histogram.get50thPercentileNanos() / 1000, histogram.get99thPercentileNanos() / 1000,
+                    histogram.get999thPercentileNanos() / 1000, histogram.getMaxNanos() / 1000);
+        }
+        Exception first = firstError.get();
+        if (first != null) {
+            System.out.printf("first error: %s%n", first);
+        }
+    }
+
+    private void recordError(Exception e) {
+        errors.incrementAndGet();
+        firstError.compareAndSet(null, e);
+    }
+
+    /**
+     * Throws the first error a client ran into, so a run with errors ends
+     * with a non-zero exit status
+     */
+    void failOnErrors() throws IOException {
+        Exception first = firstError.get();
+        if (first != null) {
+            throw new IOException("LoadHarness: " + errors.get() + " operations failed", first);
+        }
+    }
+
+    /**
+     * Returns an executor starting a virtual thread per task, or null if the
+     * JVM has no virtual threads.  Looked up reflectively so the harness
+     * builds for Java versions before them.
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
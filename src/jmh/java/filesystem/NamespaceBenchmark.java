@@ -0,0 +1,78 @@
+package filesystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Cost of name lookups and of creating and deleting files as the inode
+ * table fills up.  At 100% one inode is left free for the create.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NamespaceBenchmark {
+    @Param({"10", "50", "100"})
+    public int occupancyPercent;
+
+    private Path image;
+    private FileSystem fileSystem;
+    private String[] names;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void populate() throws IOException {
+        image = Files.createTempFile("namespace-benchmark", ".dsk");
+        fileSystem = FileSystem.format(image.toString());
+        fileSystem.setDurabilityMode(DurabilityMode.NONE);
+
+        int numInodes = fileSystem.getGeometry().getNumInodes();
+        int numFiles = Math.min(numInodes - 1, numInodes * occupancyPercent / 100);
+        names = new String[numFiles];
+        for (int i = 0; i < numFiles; i++) {
+            names[i] = "file-" + i;
+            fileSystem.close(fileSystem.create(names[i]));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        fileSystem.unmount();
+        Files.deleteIfExists(image);
+    }
+
+    @Benchmark
+    public int openAndClose() throws IOException {
+        next = (next + 1) % names.length;
+        int fd = fileSystem.open(names[next]);
+        fileSystem.close(fd);
+        return fd;
+    }
+
+    @Benchmark
+    public int createAndDelete() throws IOException {
+        int fd = fileSystem.create("scratch");
+        fileSystem.close(fd);
+        fileSystem.delete("scratch");
+        return fd;
+    }
+}
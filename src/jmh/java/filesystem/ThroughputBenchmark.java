@@ -0,0 +1,114 @@
+package filesystem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Sequential and random read and write throughput of one file for several
+ * file sizes.  Sequential benchmarks move the whole file per operation and
+ * random ones a single chunk, so bytes per second is the score times
+ * <code>fileSize</code> or <code>CHUNK_SIZE</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThroughputBenchmark {
+    public static final int CHUNK_SIZE = 4096;
+
+    @Param({"4096", "262144", "4194304"})
+    public int fileSize;
+
+    private Path image;
+    private FileSystem fileSystem;
+    private int fd;
+    private byte[] chunk;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void create() throws IOException {
+        image = Files.createTempFile("throughput-benchmark", ".dsk");
+        fileSystem = FileSystem.format(image.toString());
+        fileSystem.setDurabilityMode(DurabilityMode.NONE);
+
+        chunk = new byte[CHUNK_SIZE];
+        random = new Random(42);
+        random.nextBytes(chunk);
+
+        fd = fileSystem.create("data");
+        writeSequentially();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        fileSystem.unmount();
+        Files.deleteIfExists(image);
+    }
+
+    private int writeSequentially() throws IOException {
+        int written = 0;
+        for (long position = 0; position < fileSize; position += CHUNK_SIZE) {
+            int length = (int) Math.min(CHUNK_SIZE, fileSize - position);
+            written += fileSystem.pwrite(fd, position, chunk, 0, length);
+        }
+        return written;
+    }
+
+    private long randomChunkPosition() {
+        return (long) random.nextInt(Math.max(1, fileSize / CHUNK_SIZE)) * CHUNK_SIZE;
+    }
+
+    /**
+     * Rewrites the file from an empty one, so blocks are allocated as well
+     */
+    @Benchmark
+    public int sequentialWrite() throws IOException {
+        fileSystem.truncate(fd, 0);
+        return writeSequentially();
+    }
+
+    @Benchmark
+    public void sequentialRead(Blackhole blackhole) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        for (long position = 0; position < fileSize; position += CHUNK_SIZE) {
+            blackhole.consume(fileSystem.pread(fd, position, buffer, 0, buffer.length));
+        }
+        blackhole.consume(buffer);
+    }
+
+    /**
+     * Overwrites one chunk in place; the file keeps its blocks
+     */
+    @Benchmark
+    public int randomWrite() throws IOException {
+        return fileSystem.pwrite(fd, randomChunkPosition(), chunk, 0, Math.min(CHUNK_SIZE, fileSize));
+    }
+
+    @Benchmark
+    public byte[] randomRead() throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        fileSystem.pread(fd, randomChunkPosition(), buffer, 0, buffer.length);
+        return buffer;
+    }
+}
@@ -0,0 +1,19 @@
+package filesystem;
+
+
+/**
+ * Strategies <code>FileSystem</code> can use to pick free blocks for a file
+ */
+public enum AllocationPolicy {
+    /**
+     * Take the first free blocks found after the last allocation, one at a
+     * time, regardless of whether they are adjacent.
+     */
+    NEXT_FIT,
+
+    /**
+     * Lay the file out in as few contiguous extents as possible, using the
+     * smallest free run that fits.
+     */
+    BEST_FIT_EXTENT
+}
@@ -0,0 +1,240 @@
+package filesystem;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Asynchronous view of a <code>FileSystem</code>.  Every operation is run
+ * on a pool of I/O threads and returns a <code>CompletableFuture</code>
+ * completed with its result, or exceptionally with the
+ * <code>IOException</code> the blocking call would have thrown, so a caller
+ * can keep many operations in flight without a thread of its own for each.
+ *
+ * Operations wait in a bounded queue.  When it is full the calling thread
+ * runs the operation itself before the call returns, which slows callers
+ * down to the pace of the disk instead of letting the queue grow without
+ * limit.
+ *
+ * Operations run concurrently and complete in any order.  Those using a
+ * descriptor's position, <code>readAsync</code> and <code>writeAsync</code>,
+ * should not be in flight together on one descriptor; the positional
+ * <code>preadAsync</code> and <code>pwriteAsync</code> can be.
+ *
+ * Closing the view stops its threads but leaves the file system mounted.
+ */
+public class AsyncFileSystem implements AutoCloseable {
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    /**
+     * Blocking file system operation run on an I/O thread
+     */
+    @FunctionalInterface
+    private interface Operation<T> {
+        T run() throws IOException;
+    }
+
+    private static final AtomicInteger POOLS = new AtomicInteger();
+
+    private final FileSystem fileSystem;
+    private final ThreadPoolExecutor executor;
+
+    /***
+     * Runs the operations of <code>fileSystem</code> on
+     * <code>DEFAULT_THREADS</code> threads with room for
+     * <code>DEFAULT_QUEUE_CAPACITY</code> waiting operations
+     *
+     * @param fileSystem The mounted file system to operate on
+     */
+    public AsyncFileSystem(FileSystem fileSystem) {
+        this(fileSystem, DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /***
+     * @param fileSystem The mounted file system to operate on
+     * @param threads Number of I/O threads
+     * @param queueCapacity Number of operations that can wait for a thread
+     *                      before callers run them themselves
+     */
+    public AsyncFileSystem(FileSystem fileSystem, int threads, int queueCapacity) {
+        if (threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("AsyncFileSystem::AsyncFileSystem: " +
+                    "cannot run on " + threads + " threads with a queue of " + queueCapacity);
+        }
+        this.fileSystem = fileSystem;
+
+        int pool = POOLS.incrementAndGet();
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), task -> {
+                    Thread thread = new Thread(task, "filesystem-io-" + pool + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, (task, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("AsyncFileSystem: closed");
+                    }
+                    task.run();
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /***
+     * Returns the file system the operations run on
+     */
+    public FileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    public CompletableFuture<Integer> createAsync(String fileName) {
+        return submit("createAsync", () -> fileSystem.create(fileName));
+    }
+
+    public CompletableFuture<Void> deleteAsync(String fileName) {
+        return submit("deleteAsync", () -> {
+            fileSystem.delete(fileName);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> renameAsync(String oldName, String newName) {
+        return submit("renameAsync", () -> {
+            fileSystem.rename(oldName, newName);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> mkdirAsync(String path) {
+        return submit("mkdirAsync", () -> {
+            fileSystem.mkdir(path);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<String>> listAsync(String path) {
+        return submit("listAsync", () -> fileSystem.list(path));
+    }
+
+    public CompletableFuture<Integer> openAsync(String fileName) {
+        return submit("openAsync", () -> fileSystem.open(fileName));
+    }
+
+    public CompletableFuture<Integer> openAsync(String fileName, OpenMode mode) {
+        return submit("openAsync", () -> fileSystem.open(fileName, mode));
+    }
+
+    public CompletableFuture<Void> closeAsync(int fileDescriptor) {
+        return submit("closeAsync", () -> {
+            fileSystem.close(fileDescriptor);
+            return null;
+        });
+    }
+
+    /***
+     * Reads the whole file, like <code>FileSystem.read(int)</code>
+     */
+    public CompletableFuture<String> readAsync(int fileDescriptor) {
+        return submit("readAsync", () -> fileSystem.read(fileDescriptor));
+    }
+
+    /***
+     * Reads at the descriptor's position, like
+     * <code>FileSystem.read(int, byte[], int, int)</code>.  The caller must
+     * not touch <code>buffer</code> until the future completes.
+     */
+    public CompletableFuture<Integer> readAsync(int fileDescriptor, byte[] buffer, int offset, int length) {
+        return submit("readAsync", () -> fileSystem.read(fileDescriptor, buffer, offset, length));
+    }
+
+    public CompletableFuture<Integer> preadAsync(int fileDescriptor, long position,
+                                                 byte[] buffer, int offset, int length) {
+        return submit("preadAsync", () -> fileSystem.pread(fileDescriptor, position, buffer, offset, length));
+    }
+
+    /***
+     * Writes at the descriptor's position, like
+     * <code>FileSystem.write(int, String)</code>
+     */
+    public CompletableFuture<Integer> writeAsync(int fileDescriptor, String data) {
+        return submit("writeAsync", () -> fileSystem.write(fileDescriptor, data));
+    }
+
+    /***
+     * Writes at the descriptor's position, like
+     * <code>FileSystem.write(int, byte[], int, int)</code>.  The caller must
+     * not change <code>buffer</code> until the future completes.
+     */
+    public CompletableFuture<Integer> writeAsync(int fileDescriptor, byte[] buffer, int offset, int length) {
+        return submit("writeAsync", () -> fileSystem.write(fileDescriptor, buffer, offset, length));
+    }
+
+    public CompletableFuture<Integer> pwriteAsync(int fileDescriptor, long position,
+                                                  byte[] buffer, int offset, int length) {
+        return submit("pwriteAsync", () -> fileSystem.pwrite(fileDescriptor, position, buffer, offset, length));
+    }
+
+    public CompletableFuture<Void> truncateAsync(int fileDescriptor, long size) {
+        return submit("truncateAsync", () -> {
+            fileSystem.truncate(fileDescriptor, size);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> syncAsync() {
+        return submit("syncAsync", () -> {
+            fileSystem.sync();
+            return null;
+        });
+    }
+
+    /***
+     * Number of operations waiting for an I/O thread
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /***
+     * Number of operations running on the I/O threads
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /***
+     * Stops accepting operations and waits for those already accepted to
+     * finish.  The file system stays mounted.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(String name, Operation<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(operation.run());
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new IOException("AsyncFileSystem::" + name + ": closed", e));
+        }
+        return future;
+    }
+}
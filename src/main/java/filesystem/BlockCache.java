@@ -0,0 +1,653 @@
+package filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Bounded write-back cache of data blocks sitting between
+ * <code>FileSystem</code> and <code>Disk</code>.
+ *
+ * Blocks are kept in a fixed number of slots and replaced with the CLOCK
+ * algorithm:  every access sets the slot's reference bit and the clock
+ * hand clears reference bits until it finds a slot that has not been used
+ * since the last sweep.  Writes only mark the slot dirty; dirty blocks go
+ * to the disk when they are evicted or when the cache is flushed.
+ *
+ * The slots are split into segments by block number, each with its own
+ * clock and lock, so threads working on different blocks rarely contend.
+ *
+ * Once every slot has been used the cache allocates nothing:  a slot keeps
+ * its array when its block is evicted or dropped, and blocks are mapped to
+ * slots through arrays indexed by block number rather than a map of boxed
+ * keys.
+ */
+public class BlockCache {
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int MAX_SEGMENTS = 16;
+
+    /**
+     * Smallest number of slots worth giving a segment of its own
+     */
+    private static final int MIN_SEGMENT_CAPACITY = 64;
+
+    /**
+     * Most blocks <code>prefetch</code> reads with one transfer
+     */
+    private static final int PREFETCH_BATCH = 64;
+
+    private final Disk disk;
+    private final int blockSize;
+    private final int numBlocks;
+    private final int capacity;
+    private final Segment[] segments;
+    // staging arrays for prefetch, one per batch in flight
+    private final BufferPool prefetchBuffers;
+
+    public BlockCache(Disk disk) {
+        this(disk, DEFAULT_CAPACITY);
+    }
+
+    public BlockCache(Disk disk, int capacity) {
+        this(disk, capacity, Math.max(1, Math.min(MAX_SEGMENTS, capacity / MIN_SEGMENT_CAPACITY)));
+    }
+
+    public BlockCache(Disk disk, int capacity, int numSegments) {
+        if (capacity <= 0 || numSegments <= 0 || numSegments > capacity) {
+            throw new IllegalArgumentException("BlockCache::BlockCache: " +
+                    "capacity " + capacity + " cannot be split into " +
+                    numSegments + " segments");
+        }
+        this.disk = disk;
+        this.blockSize = disk.getBlockSize();
+        this.numBlocks = disk.getNumBlocks();
+        this.capacity = capacity;
+        this.segments = new Segment[numSegments];
+        this.prefetchBuffers = new BufferPool(PREFETCH_BATCH * blockSize, 2, false);
+
+        for (int i = 0; i < numSegments; i++) {
+            int segmentCapacity = capacity / numSegments + (i < capacity % numSegments ? 1 : 0);
+            int segmentBlocks = numBlocks / numSegments + (i < numBlocks % numSegments ? 1 : 0);
+            segments[i] = new Segment(segmentCapacity, segmentBlocks);
+        }
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /***
+     * Copies block <code>whichBlock</code> into the first block's worth of
+     * <code>dst</code>, reading it from the disk only if it is not cached.
+     * The copy is made under the cache's lock, since the slot holding the
+     * block is reused for another once it is evicted.
+     *
+     * @param whichBlock The data block to read
+     * @param dst Array of at least one block receiving the contents
+     * @throws IOException If the block or an evicted dirty block cannot be
+     *                     transferred
+     */
+    void readBlock(int whichBlock, byte[] dst) throws IOException {
+        readBlock(whichBlock, 0, dst, 0, blockSize);
+    }
+
+    /***
+     * Replaces the contents of block <code>whichBlock</code> in the cache.
+     * The block is written to the disk later, on eviction or flush.
+     *
+     * @param blockData The new contents, exactly one block long
+     * @param whichBlock The data block to write
+     * @throws IOException If an evicted dirty block cannot be written
+     * @throws IllegalArgumentException If <code>blockData</code> is not one block long
+     */
+    public void writeBlock(byte[] blockData, int whichBlock) throws IOException {
+        if (blockData.length != blockSize) {
+            throw new IllegalArgumentException("BlockCache::writeBlock:  " +
+                    "storing block of size " + blockData.length +
+                    " when it should be of size " + blockSize);
+        }
+        segmentFor(whichBlock).writeBlock(blockData, whichBlock);
+    }
+
+    /***
+     * Copies <code>length</code> bytes starting at <code>blockOffset</code>
+     * within block <code>whichBlock</code> into <code>dst</code>
+     *
+     * @param whichBlock The data block to read
+     * @param blockOffset First byte within the block to copy
+     * @param dst Array receiving the bytes
+     * @param dstOffset Position in <code>dst</code> of the first byte
+     * @param length Number of bytes to copy
+     * @throws IOException If the block or an evicted dirty block cannot be
+     *                     transferred
+     */
+    public void readBlock(int whichBlock, int blockOffset, byte[] dst, int dstOffset, int length)
+            throws IOException {
+        checkRange("readBlock", blockOffset, length);
+        segmentFor(whichBlock).read(whichBlock, blockOffset, dst, dstOffset, length);
+    }
+
+    /***
+     * Replaces <code>length</code> bytes starting at <code>blockOffset</code>
+     * within block <code>whichBlock</code>.  The rest of the block is read
+     * from the disk first if it is not cached, unless the whole block is
+     * replaced.
+     *
+     * @param whichBlock The data block to write
+     * @param blockOffset First byte within the block to replace
+     * @param src Array holding the new bytes
+     * @param srcOffset Position in <code>src</code> of the first byte
+     * @param length Number of bytes to replace
+     * @throws IOException If the block or an evicted dirty block cannot be
+     *                     transferred
+     */
+    public void writeBlock(int whichBlock, int blockOffset, byte[] src, int srcOffset, int length)
+            throws IOException {
+        checkRange("writeBlock", blockOffset, length);
+        segmentFor(whichBlock).write(whichBlock, blockOffset, src, srcOffset, length);
+    }
+
+    /***
+     * Copies whole blocks into <code>dst</code>, block <code>blocks[i]</code>
+     * landing at <code>dstOffset + i * blockSize</code>.  Cached blocks are
+     * copied from the cache; the rest are read from the disk together, so
+     * consecutive block numbers take one transfer, and are then cached.
+     * Negative entries are skipped.  The caller must keep the blocks from
+     * being written meanwhile.
+     *
+     * @throws IOException If an evicted dirty block cannot be written
+     */
+    public void readBlocks(int[] blocks, byte[] dst, int dstOffset) throws IOException {
+        int[] missing = Arrays.copyOf(blocks, blocks.length);
+        int missCount = 0;
+
+        for (int i = 0; i < blocks.length; i++) {
+            if (blocks[i] < 0 ||
+                    segmentFor(blocks[i]).copyIfCached(blocks[i], dst, dstOffset + i * blockSize)) {
+                missing[i] = -1;
+            } else {
+                missCount++;
+            }
+        }
+        if (missCount == 0) {
+            return;
+        }
+
+        disk.readBlocks(missing, ByteBuffer.wrap(dst, dstOffset, blocks.length * blockSize));
+        for (int i = 0; i < missing.length; i++) {
+            if (missing[i] >= 0) {
+                segmentFor(missing[i]).install(missing[i], dst, dstOffset + i * blockSize, false);
+            }
+        }
+    }
+
+    /***
+     * Reads the listed blocks that are not cached into the cache, so a
+     * later read finds them there.  Consecutive block numbers are read with
+     * one transfer.  Blocks read this way are counted as prefetches rather
+     * than misses.  Negative entries are skipped.  The caller must keep the
+     * blocks from being written meanwhile.
+     *
+     * @param blocks Block numbers to read ahead
+     * @return The number of blocks read from the disk
+     * @throws IOException If an evicted dirty block cannot be written
+     */
+    public int prefetch(int[] blocks) throws IOException {
+        ByteBuffer staging = prefetchBuffers.acquire();
+        try {
+            int read = 0;
+            for (int first = 0; first < blocks.length; first += PREFETCH_BATCH) {
+                int[] batch = Arrays.copyOfRange(blocks, first, Math.min(blocks.length, first + PREFETCH_BATCH));
+                int missCount = 0;
+                for (int i = 0; i < batch.length; i++) {
+                    if (batch[i] >= 0 && segmentFor(batch[i]).contains(batch[i])) {
+                        batch[i] = -1;
+                    } else if (batch[i] >= 0) {
+                        missCount++;
+                    }
+                }
+                if (missCount == 0) {
+                    continue;
+                }
+
+                disk.readBlocks(batch, staging.clear());
+                for (int i = 0; i < batch.length; i++) {
+                    if (batch[i] >= 0) {
+                        segmentFor(batch[i]).install(batch[i], staging.array(), i * blockSize, true);
+                    }
+                }
+                read += missCount;
+            }
+            return read;
+        } finally {
+            prefetchBuffers.release(staging);
+        }
+    }
+
+    /***
+     * Returns whether block <code>whichBlock</code> is in the cache, without
+     * counting a hit or a miss
+     */
+    public boolean contains(int whichBlock) {
+        return segmentFor(whichBlock).contains(whichBlock);
+    }
+
+    /***
+     * Replaces whole blocks with the contents of <code>src</code>, block
+     * <code>blocks[i]</code> coming from <code>srcOffset + i * blockSize</code>.
+     * Cached blocks are updated in the cache; the rest are written straight
+     * to the disk together, so consecutive block numbers take one transfer
+     * and a large write does not push other blocks out of the cache.
+     * Negative entries are skipped.  The caller must keep the blocks from
+     * being read or written meanwhile.
+     *
+     * @throws IOException If a block cannot be written
+     */
+    public void writeBlocks(int[] blocks, byte[] src, int srcOffset) throws IOException {
+        int[] uncached = Arrays.copyOf(blocks, blocks.length);
+        int uncachedCount = 0;
+
+        for (int i = 0; i < blocks.length; i++) {
+            if (blocks[i] < 0 ||
+                    segmentFor(blocks[i]).writeIfCached(blocks[i], src, srcOffset + i * blockSize)) {
+                uncached[i] = -1;
+            } else {
+                uncachedCount++;
+            }
+        }
+        if (uncachedCount > 0) {
+            disk.writeBlocks(uncached, ByteBuffer.wrap(src, srcOffset, blocks.length * blockSize));
+        }
+    }
+
+    /***
+     * Writes every dirty block back to the disk
+     *
+     * @throws IOException If a block cannot be written
+     */
+    public void flush() throws IOException {
+        for (Segment segment : segments) {
+            segment.flush();
+        }
+    }
+
+    /***
+     * Writes back the given blocks if they are cached and dirty
+     *
+     * @param blocks Block numbers to write back; negative entries are ignored
+     * @throws IOException If a block cannot be written
+     */
+    public void flush(int[] blocks) throws IOException {
+        for (int block : blocks) {
+            if (block >= 0) {
+                segmentFor(block).flush(block);
+            }
+        }
+    }
+
+    /***
+     * Drops block <code>whichBlock</code> from the cache without writing it
+     * back.  Used when the block is freed and its contents no longer matter.
+     *
+     * @param whichBlock The data block to drop
+     */
+    public void invalidate(int whichBlock) {
+        segmentFor(whichBlock).invalidate(whichBlock);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getDirtyCount() {
+        int total = 0;
+        for (Segment segment : segments) {
+            total += segment.dirtyCount;
+        }
+        return total;
+    }
+
+    public long getHitCount() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.hits;
+        }
+        return total;
+    }
+
+    public long getMissCount() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.misses;
+        }
+        return total;
+    }
+
+    /***
+     * Number of blocks read into the cache by <code>prefetch</code>
+     */
+    public long getPrefetchCount() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.prefetches;
+        }
+        return total;
+    }
+
+    public long getEvictionCount() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.evictions;
+        }
+        return total;
+    }
+
+    public long getWriteBackCount() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.writeBacks;
+        }
+        return total;
+    }
+
+    private void checkRange(String method, int blockOffset, int length) {
+        if (blockOffset < 0 || length < 0 || blockOffset + length > blockSize) {
+            throw new IllegalArgumentException("BlockCache::" + method + ":  " +
+                    "range " + blockOffset + "+" + length +
+                    " is outside a block of size " + blockSize);
+        }
+    }
+
+    private Segment segmentFor(int whichBlock) {
+        if (whichBlock < 0 || whichBlock >= numBlocks) {
+            throw new IllegalArgumentException("BlockCache::segmentFor:  " +
+                    "block " + whichBlock + " is not on the disk");
+        }
+        return segments[whichBlock % segments.length];
+    }
+
+    /**
+     * One independently locked CLOCK cache over a share of the slots
+     */
+    private final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int capacity;
+
+        private final byte[][] slotData;
+        private final int[] slotBlock;
+        private final boolean[] referenced;
+        private final boolean[] dirty;
+        // slot holding block segments.length * i + this segment's index, or -1
+        private final int[] slotByBlock;
+
+        private int clockHand;
+        private int usedSlots;
+
+        /**
+         * Counters are only changed under the lock; they are volatile so
+         * the totals can be read without taking every segment's lock.
+         */
+        private volatile int dirtyCount;
+        private volatile long hits;
+        private volatile long misses;
+        private volatile long prefetches;
+        private volatile long evictions;
+        private volatile long writeBacks;
+
+        Segment(int capacity, int numBlocks) {
+            this.capacity = capacity;
+            this.slotData = new byte[capacity][];
+            this.slotBlock = new int[capacity];
+            this.referenced = new boolean[capacity];
+            this.dirty = new boolean[capacity];
+            this.slotByBlock = new int[numBlocks];
+
+            Arrays.fill(slotBlock, -1);
+            Arrays.fill(slotByBlock, -1);
+        }
+
+        private int slotOf(int whichBlock) {
+            return slotByBlock[whichBlock / segments.length];
+        }
+
+        byte[] readBlock(int whichBlock) throws IOException {
+            lock.lock();
+            try {
+                int slot = slotOf(whichBlock);
+
+                if (slot >= 0) {
+                    hits++;
+                    referenced[slot] = true;
+                    return slotData[slot];
+                }
+
+                misses++;
+                slot = claimSlot(whichBlock);
+                disk.readDataBlock(whichBlock, slotData[slot]);
+                return slotData[slot];
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void writeBlock(byte[] blockData, int whichBlock) throws IOException {
+            lock.lock();
+            try {
+                int slot = slotOf(whichBlock);
+
+                if (slot >= 0) {
+                    hits++;
+                    referenced[slot] = true;
+                } else {
+                    // the whole block is replaced so there is no need to read it
+                    misses++;
+                    slot = claimSlot(whichBlock);
+                }
+
+                System.arraycopy(blockData, 0, slotData[slot], 0, blockSize);
+                markDirty(slot);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void read(int whichBlock, int blockOffset, byte[] dst, int dstOffset, int length)
+                throws IOException {
+            lock.lock();
+            try {
+                System.arraycopy(readBlock(whichBlock), blockOffset, dst, dstOffset, length);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void write(int whichBlock, int blockOffset, byte[] src, int srcOffset, int length)
+                throws IOException {
+            lock.lock();
+            try {
+                int slot = slotOf(whichBlock);
+
+                if (slot >= 0) {
+                    hits++;
+                    referenced[slot] = true;
+                } else if (length == blockSize) {
+                    // the whole block is replaced so there is no need to read it
+                    misses++;
+                    slot = claimSlot(whichBlock);
+                } else {
+                    readBlock(whichBlock);
+                    slot = slotOf(whichBlock);
+                }
+
+                System.arraycopy(src, srcOffset, slotData[slot], blockOffset, length);
+                markDirty(slot);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean copyIfCached(int whichBlock, byte[] dst, int dstOffset) {
+            lock.lock();
+            try {
+                int slot = slotOf(whichBlock);
+                if (slot < 0) {
+                    return false;
+                }
+                hits++;
+                referenced[slot] = true;
+                System.arraycopy(slotData[slot], 0, dst, dstOffset, blockSize);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean writeIfCached(int whichBlock, byte[] src, int srcOffset) {
+            lock.lock();
+            try {
+                int slot = slotOf(whichBlock);
+                if (slot < 0) {
+                    return false;
+                }
+                hits++;
+                referenced[slot] = true;
+                System.arraycopy(src, srcOffset, slotData[slot], 0, blockSize);
+                markDirty(slot);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean contains(int whichBlock) {
+            lock.lock();
+            try {
+                return slotOf(whichBlock) >= 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Caches a clean copy of a block just read from the disk, unless
+         * another thread cached it first
+         */
+        void install(int whichBlock, byte[] src, int srcOffset, boolean prefetched) throws IOException {
+            lock.lock();
+            try {
+                if (slotOf(whichBlock) >= 0) {
+                    return;
+                }
+                if (prefetched) {
+                    prefetches++;
+                } else {
+                    misses++;
+                }
+                int slot = claimSlot(whichBlock);
+                System.arraycopy(src, srcOffset, slotData[slot], 0, blockSize);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void flush() throws IOException {
+            lock.lock();
+            try {
+                for (int slot = 0; slot < capacity && dirtyCount > 0; slot++) {
+                    writeBack(slot);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void flush(int whichBlock) throws IOException {
+            lock.lock();
+            try {
+                int slot = slotOf(whichBlock);
+                if (slot >= 0) {
+                    writeBack(slot);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void invalidate(int whichBlock) {
+            lock.lock();
+            try {
+                int slot = slotOf(whichBlock);
+
+                if (slot >= 0) {
+                    if (dirty[slot]) {
+                        dirty[slot] = false;
+                        dirtyCount--;
+                    }
+                    referenced[slot] = false;
+                    slotBlock[slot] = -1;
+                    slotByBlock[whichBlock / segments.length] = -1;
+                    usedSlots--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Finds a slot for <code>whichBlock</code>, evicting with the clock
+         * hand when the segment is full, and maps the block to it.  The
+         * slot's array is allocated the first time the slot is used and
+         * reused from then on.
+         */
+        private int claimSlot(int whichBlock) throws IOException {
+            int slot;
+
+            if (usedSlots < capacity) {
+                slot = clockHand;
+                while (slotBlock[slot] != -1) {
+                    slot = (slot + 1) % capacity;
+                }
+            } else {
+                while (referenced[clockHand]) {
+                    referenced[clockHand] = false;
+                    clockHand = (clockHand + 1) % capacity;
+                }
+                slot = clockHand;
+
+                writeBack(slot);
+                slotByBlock[slotBlock[slot] / segments.length] = -1;
+                evictions++;
+                usedSlots--;
+            }
+
+            clockHand = (slot + 1) % capacity;
+            slotBlock[slot] = whichBlock;
+            referenced[slot] = true;
+            slotByBlock[whichBlock / segments.length] = slot;
+            usedSlots++;
+            if (slotData[slot] == null) {
+                slotData[slot] = new byte[blockSize];
+            }
+
+            return slot;
+        }
+
+        private void markDirty(int slot) {
+            if (!dirty[slot]) {
+                dirty[slot] = true;
+                dirtyCount++;
+            }
+        }
+
+        private void writeBack(int slot) throws IOException {
+            if (dirty[slot]) {
+                disk.writeDataBlock(slotData[slot], slotBlock[slot]);
+                dirty[slot] = false;
+                dirtyCount--;
+                writeBacks++;
+            }
+        }
+    }
+}
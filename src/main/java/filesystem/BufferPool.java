@@ -0,0 +1,79 @@
+package filesystem;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+
+/**
+ * Bounded pool of equally sized <code>ByteBuffer</code>s, so code that needs
+ * a scratch buffer for every call does not allocate one each time.
+ *
+ * Buffers are handed out cleared.  When the pool is empty a new buffer is
+ * made; buffers released while the pool is full are dropped for the garbage
+ * collector.  Direct buffers are worth pooling in particular, since they
+ * are expensive to make and are only freed by the collector.
+ *
+ * Thread safe.
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final boolean direct;
+    private final ArrayBlockingQueue<ByteBuffer> free;
+
+    /**
+     * @param bufferSize Capacity of every buffer in the pool
+     * @param maxPooled Number of released buffers kept for reuse
+     * @param direct Whether to make direct buffers rather than heap ones
+     */
+    public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+        if (bufferSize <= 0 || maxPooled <= 0) {
+            throw new IllegalArgumentException("BufferPool::BufferPool: " +
+                    "cannot pool " + maxPooled + " buffers of " + bufferSize + " bytes");
+        }
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.free = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /***
+     * Returns a cleared buffer of <code>getBufferSize()</code> bytes, taken
+     * from the pool if it holds one
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        return buffer.clear();
+    }
+
+    /***
+     * Gives <code>buffer</code> back for reuse.  The caller must not touch it
+     * afterwards.
+     *
+     * @throws IllegalArgumentException If <code>buffer</code> is not the
+     *                                  size or kind of buffer the pool holds
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+            throw new IllegalArgumentException("BufferPool::release: " +
+                    "buffer of " + buffer.capacity() + " bytes does not belong to the pool");
+        }
+        free.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /***
+     * Number of buffers currently waiting in the pool
+     */
+    public int getPooledCount() {
+        return free.size();
+    }
+}
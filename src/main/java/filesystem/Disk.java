@@ -1,7 +1,12 @@
 package filesystem;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class Disk {
@@ -16,51 +21,482 @@ public class Disk {
                                        INode.SIZE_FIELD_SIZE +
                                        (INode.NUM_BLOCK_POINTERS * INode.BLOCK_POINTER_SIZE);
 
+  /**
+   * Byte offsets of the three regions of a raw disk without a superblock:
+   * free block list, inode table and data blocks.  Disks formatted with a
+   * superblock compute their offsets from the geometry it records.
+   */
+  public static final int INODE_TABLE_OFFSET = BYTES_IN_FREE_SPACE_LIST;
+  public static final int DATA_REGION_OFFSET = INODE_TABLE_OFFSET + (INODE_SIZE * NUM_INODES);
+  public static final int DISK_SIZE = DATA_REGION_OFFSET + (BLOCK_SIZE * NUM_BLOCKS);
+
+  /**
+   * The superblock occupies the first bytes of a formatted disk:  a magic
+   * number, the format version, the geometry and, from version 2, the
+   * number of journal blocks.  An image that does not start with the magic
+   * number predates the superblock and is read with the default geometry
+   * and the fixed offsets above.
+   */
+  public static final int SUPERBLOCK_MAGIC = 0x42465331;  // "BFS1"
+  public static final int SUPERBLOCK_VERSION = 3;
+  public static final int SUPERBLOCK_SIZE = 512;
+
+  /**
+   * Smallest size of the metadata journal of newly formatted disks; see
+   * <code>journalBlocksFor</code>
+   */
+  public static final int JOURNAL_SIZE = 256 * 1024;
+
+  /**
+   * Bytes of an inode slot that hold fields; the rest of the slot is unused
+   */
+  static final int INODE_RECORD_SIZE = INode.FILE_NAME_SIZE + (Integer.BYTES * (INode.NUM_BLOCK_POINTERS + 5));
+
   private static String RAW_DISK_MODE = "rw";
 
   private String diskFileName;
   private RandomAccessFile rawDisk;
 
+  private DiskGeometry geometry = DiskGeometry.DEFAULT;
+  private int freeListOffset = 0;
+  private int inodeBitmapOffset = INODE_TABLE_OFFSET;
+  private int inodeBitmapSize = 0;
+  private int inodeTableOffset = INODE_TABLE_OFFSET;
+  private int journalOffset = DATA_REGION_OFFSET;
+  private int journalSize = 0;
+  private int dataRegionOffset = DATA_REGION_OFFSET;
+  private int diskSize = DISK_SIZE;
+
+  /**
+   * The whole raw disk is mapped into memory so that inode and block
+   * access is plain offset arithmetic on the mapping instead of a
+   * seek followed by a series of small reads or writes.
+   *
+   * Only absolute gets and puts are used on the mapping, so there is no
+   * shared file pointer and threads touching different inodes or blocks
+   * need no lock here.
+   */
+  private MappedByteBuffer mappedDisk;
+
+  /**
+   * Every force of the mapping, whole or partial, is counted and timed
+   */
+  private final AtomicLong syncCount = new AtomicLong();
+  private final AtomicLong syncNanos = new AtomicLong();
+  private final AtomicLong maxSyncNanos = new AtomicLong();
+
+  private final IOCounters counters = new IOCounters();
+
   public Disk() {
-    this.diskFileName = RAW_DISK_NAME;
+    this(RAW_DISK_NAME);
+  }
+
+  public Disk(String diskFileName) {
+    this.diskFileName = diskFileName;
   }
 
   /***
-   * Initialize a new disk
+   * Initialize a new disk with the default geometry
    *
    * @throws IOException If an I/O error occurs
    */
   public void format() throws IOException {
-    rawDisk = new RandomAccessFile(diskFileName, RAW_DISK_MODE);
-    byte[] freeListBytes = new byte[BYTES_IN_FREE_SPACE_LIST];
+    format(DiskGeometry.DEFAULT);
+  }
 
-    INode emptyINode = new INode();
+  /***
+   * Initialize a new disk with the given geometry
+   *
+   * The file is emptied and grown back to the full disk size, which leaves
+   * the data region as a sparse run of zeros without writing it.  The
+   * superblock, empty free block list and inode table are then written
+   * with a single transfer.
+   *
+   * @param newGeometry Block size, block count and inode count of the disk
+   * @throws IOException If an I/O error occurs or the disk would be too
+   *                     large to map
+   */
+  public void format(DiskGeometry newGeometry) throws IOException {
+    setLayout(newGeometry, journalBlocksFor(newGeometry), true);
 
-    byte[] emptyDiskBlock = new byte[BLOCK_SIZE];
+    rawDisk = new RandomAccessFile(diskFileName, RAW_DISK_MODE);
+    rawDisk.setLength(0);
+    rawDisk.setLength(diskSize);
+    map();
 
     /**
-     * write an empty free block list
+     * the superblock, an empty free block list, an empty inode bitmap, empty
+     * inodes and a journal without a header, which the first mount
+     * initializes
      */
-    rawDisk.write(freeListBytes);
+    byte[] metadata = new byte[dataRegionOffset];
+    ByteBuffer metadataBuffer = ByteBuffer.wrap(metadata);
 
-    /**
-     * write empty inodes
-     */
-    for(int i= 0; i < NUM_INODES; i++) {
-      rawDisk.write(emptyINode.getFileNameBytes());
-      rawDisk.write(emptyINode.getSizeBytes());
+    metadataBuffer.putInt(0, SUPERBLOCK_MAGIC);
+    metadataBuffer.putInt(4, SUPERBLOCK_VERSION);
+    metadataBuffer.putInt(8, geometry.getBlockSize());
+    metadataBuffer.putInt(12, geometry.getNumBlocks());
+    metadataBuffer.putInt(16, geometry.getNumInodes());
+    metadataBuffer.putInt(20, journalSize / geometry.getBlockSize());
 
-      for (int blkPtrIndex= 0; blkPtrIndex < INode.NUM_BLOCK_POINTERS; blkPtrIndex++) {
-        byte[] blockPtr = emptyINode.getBlockPointerBytes(blkPtrIndex);
-        rawDisk.write(blockPtr);
+    INode emptyINode = new INode();
+    for(int i= 0; i < geometry.getNumInodes(); i++) {
+      encodeInode(emptyINode, metadataBuffer, inodeTableOffset + (INODE_SIZE * i));
+    }
+
+    mappedDisk.put(0, metadata);
+    counters.otherWritten(metadata.length);
+  }
+
+  /***
+   * Opens an existing disk without changing it.  The geometry is read from
+   * the superblock, or is the default one for images without a superblock.
+   *
+   * @throws IOException If the file does not exist, has an unknown format
+   *                     version or is too short to hold its disk
+   */
+  public void mount() throws IOException {
+    File diskFile = new File(diskFileName);
+    if (!diskFile.isFile()) {
+      throw new IOException("Disk::mount:  " + diskFileName +
+                            " is not a formatted disk");
+    }
+
+    rawDisk = new RandomAccessFile(diskFile, RAW_DISK_MODE);
+    try {
+      readSuperblock();
+      if (rawDisk.length() < diskSize) {
+        throw new IOException("Disk::mount:  " + diskFileName +
+                              " is not a formatted disk");
       }
+      map();
+    } catch (IOException | RuntimeException e) {
+      rawDisk.close();
+      rawDisk = null;
+      throw e;
     }
+  }
 
-    /**
-     * write empty disk data blocks
-     */
-    for (int blkCount= 0; blkCount < NUM_BLOCKS; blkCount++) {
-      rawDisk.write(emptyDiskBlock);
+  /***
+   * Sets the geometry and region offsets from the superblock of the open
+   * raw disk file
+   */
+  private void readSuperblock() throws IOException {
+    if (rawDisk.length() < SUPERBLOCK_SIZE) {
+      throw new IOException("Disk::mount:  " + diskFileName +
+                            " is not a formatted disk");
+    }
+
+    // positional, so nothing depends on the file pointer of rawDisk
+    ByteBuffer superblockBuffer = ByteBuffer.allocate(SUPERBLOCK_SIZE);
+    FileChannel channel = rawDisk.getChannel();
+    while (superblockBuffer.hasRemaining()) {
+      if (channel.read(superblockBuffer, superblockBuffer.position()) < 0) {
+        throw new IOException("Disk::mount:  " + diskFileName +
+                              " is not a formatted disk");
+      }
+    }
+
+    if (superblockBuffer.getInt(0) != SUPERBLOCK_MAGIC) {
+      setLayout(DiskGeometry.DEFAULT, -1, false);
+      return;
+    }
+
+    int version = superblockBuffer.getInt(4);
+    if (version < 1 || version > SUPERBLOCK_VERSION) {
+      throw new IOException("Disk::mount:  " + diskFileName +
+                            " has format version " + version +
+                            " instead of " + SUPERBLOCK_VERSION);
+    }
+
+    // version 1 disks have no journal, and disks before version 3 no inode bitmap
+    int journalBlocks = version >= 2 ? superblockBuffer.getInt(20) : 0;
+    boolean inodeBitmap = version >= 3;
+
+    try {
+      if (journalBlocks < 0) {
+        throw new IllegalArgumentException("negative journal size");
+      }
+      setLayout(new DiskGeometry(superblockBuffer.getInt(8),
+                                 superblockBuffer.getInt(12),
+                                 superblockBuffer.getInt(16)), journalBlocks, inodeBitmap);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Disk::mount:  " + diskFileName +
+                            " has a damaged superblock", e);
+    }
+  }
+
+  /***
+   * Returns the number of journal blocks a disk of <code>newGeometry</code>
+   * is formatted with:  <code>JOURNAL_SIZE</code>, or enough for one
+   * transaction rewriting both bitmaps, every inode and the pointer blocks
+   * of a largest file if that is more.  Larger transactions are written
+   * without the journal.
+   */
+  static int journalBlocksFor(DiskGeometry newGeometry) {
+    long blockSize = newGeometry.getBlockSize();
+    long fileBlocks = Math.min(newGeometry.getMaxFileBlocks(), newGeometry.getNumBlocks());
+    long pointerBlocks = 2 + fileBlocks / newGeometry.getPointersPerBlock();
+    long records = 2 + newGeometry.getNumInodes() + pointerBlocks;
+
+    long transaction = Journal.HEADER_SIZE + Journal.BEGIN_SIZE + Journal.COMMIT_SIZE +
+                       records * Journal.RECORD_HEADER_SIZE +
+                       newGeometry.getFreeListBytes() +
+                       (newGeometry.getNumInodes() + Byte.SIZE - 1) / Byte.SIZE +
+                       (long) INODE_RECORD_SIZE * newGeometry.getNumInodes() +
+                       pointerBlocks * blockSize;
+    long bytes = Math.max(JOURNAL_SIZE, transaction);
+    return (int) Math.min(Integer.MAX_VALUE, (bytes + blockSize - 1) / blockSize);
+  }
+
+  /***
+   * Computes where each region starts for <code>newGeometry</code>.  With a
+   * superblock the free block list follows it, then the inode bitmap if
+   * <code>inodeBitmap</code> is set, and the journal and the data region
+   * start on block boundaries after the inode table.  A negative
+   * <code>journalBlocks</code> means there is no superblock and the fixed
+   * offsets are used.
+   *
+   * @throws IOException If the disk would be too large to map
+   */
+  private void setLayout(DiskGeometry newGeometry, int journalBlocks, boolean inodeBitmap) throws IOException {
+    if (journalBlocks < 0) {
+      geometry = DiskGeometry.DEFAULT;
+      freeListOffset = 0;
+      inodeBitmapOffset = INODE_TABLE_OFFSET;
+      inodeBitmapSize = 0;
+      inodeTableOffset = INODE_TABLE_OFFSET;
+      journalOffset = DATA_REGION_OFFSET;
+      journalSize = 0;
+      dataRegionOffset = DATA_REGION_OFFSET;
+      diskSize = DISK_SIZE;
+      return;
+    }
+
+    long inodeBitmapStart = SUPERBLOCK_SIZE + (long) newGeometry.getFreeListBytes();
+    int inodeBitmapBytes = inodeBitmap ? (newGeometry.getNumInodes() + Byte.SIZE - 1) / Byte.SIZE : 0;
+    long inodeTable = inodeBitmapStart + inodeBitmapBytes;
+    long journal = inodeTable + (long) INODE_SIZE * newGeometry.getNumInodes();
+    long blockSize = newGeometry.getBlockSize();
+    journal = (journal + blockSize - 1) / blockSize * blockSize;
+    long dataRegion = journal + blockSize * journalBlocks;
+    long size = dataRegion + blockSize * newGeometry.getNumBlocks();
+
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Disk::format:  " + newGeometry +
+                            " needs " + size + " bytes, more than can be mapped");
+    }
+
+    geometry = newGeometry;
+    freeListOffset = SUPERBLOCK_SIZE;
+    inodeBitmapOffset = (int) inodeBitmapStart;
+    inodeBitmapSize = inodeBitmapBytes;
+    inodeTableOffset = (int) inodeTable;
+    journalOffset = (int) journal;
+    journalSize = (int) (dataRegion - journal);
+    dataRegionOffset = (int) dataRegion;
+    diskSize = (int) size;
+  }
+
+  /***
+   * Maps the free block list, inode table and data region of the open raw
+   * disk file into memory
+   *
+   * @throws IOException If the file cannot be mapped
+   */
+  private void map() throws IOException {
+    mappedDisk = rawDisk.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, diskSize);
+  }
+
+  public DiskGeometry getGeometry() {
+    return geometry;
+  }
+
+  public int getBlockSize() {
+    return geometry.getBlockSize();
+  }
+
+  public int getNumBlocks() {
+    return geometry.getNumBlocks();
+  }
+
+  public int getNumInodes() {
+    return geometry.getNumInodes();
+  }
+
+  /***
+   * Returns whether the disk has a metadata journal.  Disks formatted
+   * before the journal existed do not.
+   */
+  public boolean hasJournal() {
+    return journalSize > 0;
+  }
+
+  int getJournalSize() {
+    return journalSize;
+  }
+
+  /***
+   * Returns whether the disk stores which inodes are in use.  Disks
+   * formatted before the inode bitmap existed do not.
+   */
+  public boolean hasInodeBitmap() {
+    return inodeBitmapSize > 0;
+  }
+
+  /**
+   * Disk offsets of the metadata a journal record can describe
+   */
+  int getFreeListOffset() {
+    return freeListOffset;
+  }
+
+  int getInodeBitmapOffset() {
+    return inodeBitmapOffset;
+  }
+
+  int getInodeOffset(int whichInode) {
+    return inodeTableOffset + (INODE_SIZE * whichInode);
+  }
+
+  int getBlockOffset(int whichBlock) {
+    return dataRegionOffset + (geometry.getBlockSize() * whichBlock);
+  }
+
+  /***
+   * Copies bytes of the journal region starting <code>position</code>
+   * bytes into it
+   */
+  void readJournal(int position, byte[] dst) {
+    mappedDisk.get(journalOffset + position, dst);
+    counters.otherRead(dst.length);
+  }
+
+  void writeJournal(int position, byte[] src) {
+    writeJournal(position, src, src.length);
+  }
+
+  void writeJournal(int position, byte[] src, int length) {
+    mappedDisk.put(journalOffset + position, src, 0, length);
+    counters.otherWritten(length);
+  }
+
+  /***
+   * Forces <code>length</code> bytes of the journal region starting
+   * <code>position</code> bytes into it, and nothing else, to the
+   * underlying file
+   */
+  void forceJournal(int position, int length) {
+    long start = System.nanoTime();
+    mappedDisk.force(journalOffset + position, length);
+    recordSync(start);
+  }
+
+  /***
+   * Forces the data region, and nothing else, to the underlying file, so
+   * data blocks reach it before the metadata pointing to them is committed
+   */
+  void forceData() {
+    long start = System.nanoTime();
+    mappedDisk.force(dataRegionOffset, diskSize - dataRegionOffset);
+    recordSync(start);
+  }
+
+  /***
+   * Writes <code>bytes</code> at disk offset <code>offset</code>.  Used to
+   * apply journal records, which name metadata by its offset.
+   *
+   * @throws IllegalArgumentException If the range is outside the metadata
+   *                                  or data regions
+   */
+  void writeMetadata(int offset, byte[] bytes) {
+    boolean inMetadata = offset >= freeListOffset && offset + bytes.length <= journalOffset;
+    boolean inData = offset >= dataRegionOffset && offset + bytes.length <= diskSize;
+    if (bytes.length > 0 && !inMetadata && !inData) {
+      throw new IllegalArgumentException("Disk::writeMetadata:  " +
+                                         "range " + offset + "+" + bytes.length +
+                                         " is not part of the disk");
+    }
+    mappedDisk.put(offset, bytes);
+
+    if (inData) {
+      int blockSize = geometry.getBlockSize();
+      counters.blocksWritten((bytes.length + blockSize - 1) / blockSize, bytes.length);
+    } else if (offset < inodeBitmapOffset) {
+      counters.freeListWritten(bytes.length);
+    } else if (offset < inodeTableOffset) {
+      counters.otherWritten(bytes.length);
+    } else {
+      counters.inodesWritten((bytes.length + INODE_SIZE - 1) / INODE_SIZE, bytes.length);
+    }
+  }
+
+  /***
+   * Returns the fields of <code>inode</code> as they are stored in its slot
+   */
+  static byte[] encodeInode(INode inode) {
+    byte[] record = new byte[INODE_RECORD_SIZE];
+    encodeInode(inode, ByteBuffer.wrap(record), 0);
+    return record;
+  }
+
+  /***
+   * Forces any changes made to the mapped disk out to the underlying file
+   *
+   * @throws IOException If the disk has not been formatted
+   */
+  public void sync() throws IOException {
+    if (mappedDisk == null) {
+      throw new IOException("Disk::sync:  disk is not mapped");
+    }
+    long start = System.nanoTime();
+    mappedDisk.force();
+    recordSync(start);
+  }
+
+  /***
+   * Returns the number of times the disk, or its journal, was forced to
+   * the underlying file
+   */
+  public long getSyncCount() {
+    return syncCount.get();
+  }
+
+  public long getTotalSyncNanos() {
+    return syncNanos.get();
+  }
+
+  public long getMaxSyncNanos() {
+    return maxSyncNanos.get();
+  }
+
+  /***
+   * Returns the running totals of the transfers made by this disk
+   */
+  public IOCounters getCounters() {
+    return counters;
+  }
+
+  private void recordSync(long start) {
+    long elapsed = System.nanoTime() - start;
+    syncCount.incrementAndGet();
+    syncNanos.addAndGet(elapsed);
+    maxSyncNanos.accumulateAndGet(elapsed, Math::max);
+  }
+
+  /***
+   * Flushes the mapping and closes the raw disk file
+   *
+   * @throws IOException If an I/O error occurs
+   */
+  public void close() throws IOException {
+    if (mappedDisk != null) {
+      mappedDisk.force();
+      mappedDisk = null;
+    }
+    if (rawDisk != null) {
+      rawDisk.close();
+      rawDisk = null;
     }
   }
 
@@ -72,15 +508,49 @@ public class Disk {
    *                     the random access file has been closed, or if some other I/O error occurs
    */
   public byte[] readFreeBlockList() throws IOException {
-    byte[] freeList = new byte[BYTES_IN_FREE_SPACE_LIST];
+    byte[] freeList = new byte[geometry.getFreeListBytes()];
 
-    rawDisk.seek((long)0);
-    rawDisk.read(freeList);
+    mappedDisk.get(freeListOffset, freeList);
+    counters.freeListRead(freeList.length);
 
     return freeList;
   }
 
 
+  /***
+   * Retrieve the inode bitmap, one bit per inode in the layout of the free
+   * block list
+   *
+   * @return The bitmap as stored on the disk
+   * @throws IllegalStateException If the disk has no inode bitmap
+   */
+  byte[] readInodeBitmap() {
+    if (!hasInodeBitmap()) {
+      throw new IllegalStateException("Disk::readInodeBitmap:  disk has no inode bitmap");
+    }
+    byte[] bitmap = new byte[inodeBitmapSize];
+
+    mappedDisk.get(inodeBitmapOffset, bitmap);
+    counters.otherRead(bitmap.length);
+
+    return bitmap;
+  }
+
+  /***
+   * Returns whether inode <code>whichInode</code> has a name, by the rule
+   * <code>readInode</code> uses, without decoding it.  Used to find the
+   * inodes in use on disks without an inode bitmap.
+   */
+  boolean isInodeNamed(int whichInode) {
+    int cursor = inodeTableOffset + (INODE_SIZE * whichInode);
+    int nameSum = 0;
+    for (int i = 0; i < INode.FILE_NAME_SIZE; i++) {
+      nameSum += mappedDisk.get(cursor + i);
+    }
+    counters.inodesRead(1, INode.FILE_NAME_SIZE);
+    return nameSum > 0;
+  }
+
   /***
    * Writes free space list to raw disk
    *
@@ -90,16 +560,16 @@ public class Disk {
    *                      the same as the free byte list on the disk.
    */
   public void writeFreeBlockList(byte[] freeBlockList) throws IOException {
-    if (freeBlockList.length != BYTES_IN_FREE_SPACE_LIST) {
+    if (freeBlockList.length != geometry.getFreeListBytes()) {
       throw new IllegalArgumentException("Disk::writeFreeBlockList:  " +
                                        "is "  +  freeBlockList.length +
                                        "bytes long  instead of "  +
-                                       BYTES_IN_FREE_SPACE_LIST +
+                                       geometry.getFreeListBytes() +
                                        " bytes long");
     }
 
-    rawDisk.seek((long)0);
-    rawDisk.write(freeBlockList);
+    mappedDisk.put(freeListOffset, freeBlockList);
+    counters.freeListWritten(freeBlockList.length);
   }
 
 
@@ -111,26 +581,8 @@ public class Disk {
    * @throws IOException If an I/O error occurs
    */
   public void writeInode(INode inode, int whichInode) throws IOException {
-      byte[] name = inode.getFileNameBytes();
-      byte[] size = inode.getSizeBytes();
-      byte[][] blockPointers = new byte[INode.NUM_BLOCK_POINTERS][];
-
-      for (int i= 0; i < INode.NUM_BLOCK_POINTERS; i++) {
-        blockPointers[i] = inode.getBlockPointerBytes(i);
-      }
-
-      int cursor = BYTES_IN_FREE_SPACE_LIST + (INODE_SIZE * whichInode);
-
-      /**
-       * Seek to correct position in the raw file
-       */
-      rawDisk.seek((long)cursor);
-
-      rawDisk.write(name);
-      rawDisk.write(size);
-      for (int j= 0; j < INode.NUM_BLOCK_POINTERS; j++) {
-        rawDisk.write(blockPointers[j]);
-      }
+      encodeInode(inode, mappedDisk, inodeTableOffset + (INODE_SIZE * whichInode));
+      counters.inodesWritten(1, INODE_RECORD_SIZE);
   }
 
   /***
@@ -143,47 +595,179 @@ public class Disk {
    */
   public INode readInode(int whichInode) throws IOException {
       INode inode = new INode();
-      int cursor = BYTES_IN_FREE_SPACE_LIST + (INODE_SIZE * whichInode);
+      readInode(whichInode, inode);
+      return inode;
+  }
 
-      rawDisk.seek((long)cursor);
+  /***
+   * Reads inode <code>whichInode</code> into <code>inode</code>, replacing
+   * all of its fields.  Reading into the same instance again allocates
+   * nothing unless the inode's name changed.
+   *
+   * @param whichInode The <code>INode</code> position in the file system to be read
+   * @param inode The instance receiving the fields
+   * @throws IOException If an I/O error occurs
+   */
+  public void readInode(int whichInode, INode inode) throws IOException {
+      decodeInode(mappedDisk, inodeTableOffset + (INODE_SIZE * whichInode), inode);
+      counters.inodesRead(1, INODE_RECORD_SIZE);
+  }
 
-      byte[] fileNameBytes = new byte[INode.FILE_NAME_SIZE];
-      int nameReadLen = rawDisk.read(fileNameBytes);
+  /***
+   * Reads the whole inode table with a single transfer from the disk.
+   * Mounting does not use it; <code>INodeCache</code> decodes each inode
+   * when it is first asked for.
+   *
+   * @return Every inode on the disk, indexed by inode number
+   * @throws IOException If an I/O error occurs
+   */
+  public INode[] readInodeTable() throws IOException {
+      int numInodes = geometry.getNumInodes();
+      byte[] table = new byte[INODE_SIZE * numInodes];
+      mappedDisk.get(inodeTableOffset, table);
+      counters.inodesRead(numInodes, table.length);
+
+      ByteBuffer tableBuffer = ByteBuffer.wrap(table);
+      INode[] inodes = new INode[numInodes];
+
+      for (int i= 0; i < numInodes; i++) {
+        inodes[i] = new INode();
+        decodeInode(tableBuffer, INODE_SIZE * i, inodes[i]);
+      }
+      return inodes;
+  }
 
-      int fileSizeField = rawDisk.readInt();
+  /***
+   * Writes the whole inode table with a single transfer to the disk
+   *
+   * @param inodes Every inode of the file system, indexed by inode number
+   * @throws IOException If an I/O error occurs
+   * @throws IllegalArgumentException If <code>inodes</code> does not hold
+   *                                  exactly one entry per inode
+   */
+  public void writeInodeTable(INode[] inodes) throws IOException {
+      int numInodes = geometry.getNumInodes();
+      if (inodes.length != numInodes) {
+        throw new IllegalArgumentException("Disk::writeInodeTable:  " +
+                                           "table has " + inodes.length +
+                                           " inodes instead of " + numInodes);
+      }
 
-      /**
-       * read each block pointer
-       */
-      int[] blockPtrValues = new int[INode.NUM_BLOCK_POINTERS];
+      byte[] table = new byte[INODE_SIZE * numInodes];
+      ByteBuffer tableBuffer = ByteBuffer.wrap(table);
 
-      for (int i= 0; i < INode.NUM_BLOCK_POINTERS; i++) {
-        blockPtrValues[i]= rawDisk.readInt();
+      for (int i= 0; i < numInodes; i++) {
+        encodeInode(inodes[i], tableBuffer, INODE_SIZE * i);
       }
+      mappedDisk.put(inodeTableOffset, table);
+      counters.inodesWritten(numInodes, table.length);
+  }
 
-      String fileName = new String(fileNameBytes);
+  /**
+   * Set in the flags field of inodes that store indirect block pointers.
+   * Inodes written before the field existed have zeros there, so their
+   * indirect pointers are read as absent rather than as block 0.
+   */
+  private static final int INDIRECT_POINTERS_FLAG = 0x1;
 
-      /**
-       * Null string is all 0's but
-       * the conversion makes it the empty string.
-       */
-      int nameSum = 0;
-      for (int index = 0; index < fileNameBytes.length; index++) {
-        nameSum += fileNameBytes[index];
-      }
+  /**
+   * Set in the flags field of directory inodes
+   */
+  private static final int DIRECTORY_FLAG = 0x2;
 
-      if ( nameSum <= 0) {
-         inode.setFileName(null);
+  /**
+   * Set in the flags field of inodes that store the inode number of their
+   * directory.  Inodes written before directories existed are in the root
+   * directory.
+   */
+  private static final int PARENT_FLAG = 0x4;
+
+  /**
+   * Set in the flags field of inodes whose block pointers hold the file's
+   * bytes instead
+   */
+  private static final int INLINE_DATA_FLAG = 0x8;
+
+  /**
+   * Stores the fields of <code>inode</code> in <code>buffer</code> starting at
+   * <code>cursor</code>:  the name, the size, each block pointer or the
+   * inline bytes that take their place, then the flags, the single- and double-indirect pointers and the directory the
+   * inode is in, in the unused part of the inode's slot.
+   */
+  private static void encodeInode(INode inode, ByteBuffer buffer, int cursor) {
+      inode.writeFileName(buffer, cursor);
+      cursor += INode.FILE_NAME_SIZE;
+
+      buffer.putInt(cursor, inode.getSize());
+      cursor += Integer.BYTES;
+
+      if (inode.hasInlineData()) {
+        buffer.put(cursor, inode.getInlineData());
+        cursor += INode.INLINE_DATA_SIZE;
       } else {
-        inode.setFileName(fileName);
+        for (int j= 0; j < INode.NUM_BLOCK_POINTERS; j++) {
+          buffer.putInt(cursor, inode.getBlockPointer(j));
+          cursor += Integer.BYTES;
+        }
       }
-      inode.setSize(fileSizeField);
 
-      for (int blkPtrIndex= 0; blkPtrIndex < INode.NUM_BLOCK_POINTERS; blkPtrIndex++) {
-        inode.setBlockPointer(blkPtrIndex, blockPtrValues[blkPtrIndex]);
+      int flags = INDIRECT_POINTERS_FLAG | PARENT_FLAG | (inode.isDirectory() ? DIRECTORY_FLAG : 0) |
+                  (inode.hasInlineData() ? INLINE_DATA_FLAG : 0);
+      buffer.putInt(cursor, flags);
+      cursor += Integer.BYTES;
+      buffer.putInt(cursor, inode.getSingleIndirectPointer());
+      cursor += Integer.BYTES;
+      buffer.putInt(cursor, inode.getDoubleIndirectPointer());
+      cursor += Integer.BYTES;
+      buffer.putInt(cursor, inode.getParent());
+  }
+
+  /**
+   * Sets the fields of <code>inode</code> to the ones stored in
+   * <code>buffer</code> starting at <code>cursor</code>.  Nothing is
+   * allocated unless the name differs from the one <code>inode</code>
+   * already has, or the inode holds inline data and <code>inode</code> has
+   * no array for it yet.
+   */
+  private static void decodeInode(ByteBuffer buffer, int cursor, INode inode) {
+      inode.readFileName(buffer, cursor);
+      cursor += INode.FILE_NAME_SIZE;
+
+      inode.setSize(buffer.getInt(cursor));
+      cursor += Integer.BYTES;
+
+      int flags = buffer.getInt(cursor + INode.INLINE_DATA_SIZE);
+      if ((flags & INLINE_DATA_FLAG) != 0) {
+        byte[] inlineData = inode.hasInlineData() ? inode.getInlineData() : new byte[INode.INLINE_DATA_SIZE];
+        buffer.get(cursor, inlineData);
+        inode.setInlineData(inlineData);
+        for (int i= 0; i < INode.NUM_BLOCK_POINTERS; i++) {
+          inode.setBlockPointer(i, -1);
+        }
+        cursor += INode.INLINE_DATA_SIZE;
+      } else {
+        inode.setInlineData(null);
+
+        /**
+         * read each block pointer
+         */
+        for (int i= 0; i < INode.NUM_BLOCK_POINTERS; i++) {
+          inode.setBlockPointer(i, buffer.getInt(cursor));
+          cursor += Integer.BYTES;
+        }
       }
-      
-      return inode;
+      cursor += Integer.BYTES;
+      if ((flags & INDIRECT_POINTERS_FLAG) != 0) {
+        inode.setSingleIndirectPointer(buffer.getInt(cursor));
+        inode.setDoubleIndirectPointer(buffer.getInt(cursor + Integer.BYTES));
+      } else {
+        inode.setSingleIndirectPointer(-1);
+        inode.setDoubleIndirectPointer(-1);
+      }
+      cursor += 2 * Integer.BYTES;
+
+      inode.setDirectory((flags & DIRECTORY_FLAG) != 0);
+      inode.setParent((flags & PARENT_FLAG) != 0 ? buffer.getInt(cursor) : -1);
   }
 
   /***
@@ -194,13 +778,49 @@ public class Disk {
    * @throws IOException If an I/O error occurs
    */
   public byte[] readDataBlock(int whichBlock) throws IOException {
-    int cursor = BYTES_IN_FREE_SPACE_LIST + (INODE_SIZE * NUM_INODES) + (BLOCK_SIZE * whichBlock);
-    byte[] blockData = new byte[BLOCK_SIZE];
+    byte[] blockData = new byte[geometry.getBlockSize()];
+    readDataBlock(whichBlock, blockData);
+    return blockData;
+  }
 
-    rawDisk.seek(cursor);
-    rawDisk.read(blockData);
+  /***
+   * Reads a block of data into the first block's worth of <code>dst</code>
+   *
+   * @param whichBlock The position of the data block to be read
+   * @param dst Array of at least one block receiving the data
+   * @throws IOException If an I/O error occurs
+   */
+  public void readDataBlock(int whichBlock, byte[] dst) throws IOException {
+    int blockSize = geometry.getBlockSize();
+    int cursor = dataRegionOffset + (blockSize * whichBlock);
 
-    return blockData;
+    mappedDisk.get(cursor, dst, 0, blockSize);
+    counters.blocksRead(1, blockSize);
+  }
+
+  /***
+   * Reads a block of data into <code>dst</code> at its position, which is
+   * advanced past the block.  <code>dst</code> may be a direct buffer, such
+   * as one from a <code>BufferPool</code>.
+   *
+   * @param whichBlock The position of the data block to be read
+   * @param dst Buffer with at least one block remaining
+   * @throws IOException If an I/O error occurs
+   * @throws IllegalArgumentException If <code>dst</code> has less than a block remaining
+   */
+  public void readDataBlock(int whichBlock, ByteBuffer dst) throws IOException {
+    int blockSize = geometry.getBlockSize();
+    int cursor = dataRegionOffset + (blockSize * whichBlock);
+
+    if (dst.remaining() < blockSize) {
+       throw new IllegalArgumentException("Disk::readDataBlock:  "  +
+                     "buffer holds " + dst.remaining()  +
+                     " bytes instead of a block of size "  + blockSize);
+    }
+
+    dst.put(dst.position(), mappedDisk, cursor, blockSize);
+    dst.position(dst.position() + blockSize);
+    counters.blocksRead(1, blockSize);
   }
 
 
@@ -214,16 +834,157 @@ public class Disk {
    *                                  to the length of a data block size
    */
   public void writeDataBlock(byte[] blockData, int whichBlock) throws IOException, IllegalArgumentException {
-    int cursor = BYTES_IN_FREE_SPACE_LIST + (INODE_SIZE * NUM_INODES) + (BLOCK_SIZE *whichBlock);
+    int blockSize = geometry.getBlockSize();
+    int cursor = dataRegionOffset + (blockSize * whichBlock);
 
-    if (blockData.length != BLOCK_SIZE) {
+    if (blockData.length != blockSize) {
        throw new IllegalArgumentException("Disk::writeDataBlock:  "  +
                      "storing block of size " + blockData.length  +
-                     "when it should be of size "  + BLOCK_SIZE);
+                     "when it should be of size "  + blockSize);
     }
 
-    rawDisk.seek(cursor);
-    rawDisk.write(blockData);
+    mappedDisk.put(cursor, blockData);
+    counters.blocksWritten(1, blockSize);
+  }
+
+  /***
+   * Writes a block of data from <code>src</code> at its position, which is
+   * advanced past the block
+   *
+   * @param src Buffer with at least one block remaining
+   * @param whichBlock Block position in the file system
+   * @throws IOException If an I/O error occurs
+   * @throws IllegalArgumentException If <code>src</code> has less than a block remaining
+   */
+  public void writeDataBlock(ByteBuffer src, int whichBlock) throws IOException, IllegalArgumentException {
+    int blockSize = geometry.getBlockSize();
+    int cursor = dataRegionOffset + (blockSize * whichBlock);
+
+    if (src.remaining() < blockSize) {
+       throw new IllegalArgumentException("Disk::writeDataBlock:  "  +
+                     "buffer holds " + src.remaining()  +
+                     " bytes instead of a block of size "  + blockSize);
+    }
+
+    mappedDisk.put(cursor, src, src.position(), blockSize);
+    src.position(src.position() + blockSize);
+    counters.blocksWritten(1, blockSize);
+  }
+
+  /***
+   * Decodes the pointers stored in block <code>whichBlock</code> into
+   * <code>pointers</code>, one per four bytes, without copying the block
+   */
+  void readPointers(int whichBlock, int[] pointers) {
+    int blockSize = geometry.getBlockSize();
+    int cursor = dataRegionOffset + (blockSize * whichBlock);
+
+    for (int i = 0; i < pointers.length; i++) {
+      pointers[i] = mappedDisk.getInt(cursor + i * Integer.BYTES);
+    }
+    counters.blocksRead(1, blockSize);
+  }
+
+  /***
+   * Reads the data blocks listed in <code>blocks</code> into
+   * <code>dst</code>, block <code>blocks[i]</code> landing
+   * <code>i</code> blocks after the buffer's position.  Runs of consecutive
+   * block numbers are copied with a single transfer each.  Negative
+   * entries are skipped and leave their part of <code>dst</code> as it was.
+   * The position of <code>dst</code> is advanced past all the blocks.
+   *
+   * @param blocks Block numbers to read, in the order they go into <code>dst</code>
+   * @param dst Buffer with room for <code>blocks.length</code> blocks
+   * @return The number of transfers made
+   * @throws IllegalArgumentException If a block is not on the disk or
+   *                                  <code>dst</code> is too small
+   */
+  public int readBlocks(int[] blocks, ByteBuffer dst) {
+    checkBlocks("readBlocks", blocks, dst);
+    int blockSize = geometry.getBlockSize();
+    int base = dst.position();
+    int transfers = 0;
+
+    for (int first = 0; first < blocks.length; ) {
+      int length = runLength(blocks, first);
+      if (blocks[first] >= 0) {
+        dst.put(base + first * blockSize, mappedDisk,
+                dataRegionOffset + blocks[first] * blockSize, length * blockSize);
+        counters.blocksRead(length, (long) length * blockSize);
+        transfers++;
+      }
+      first += length;
+    }
+
+    dst.position(base + blocks.length * blockSize);
+    return transfers;
+  }
+
+  /***
+   * Writes the data blocks listed in <code>blocks</code> from
+   * <code>src</code>, block <code>blocks[i]</code> coming from
+   * <code>i</code> blocks after the buffer's position.  Runs of consecutive
+   * block numbers are copied with a single transfer each.  Negative
+   * entries are skipped.  The position of <code>src</code> is advanced past
+   * all the blocks.
+   *
+   * @param blocks Block numbers to write, in the order they are in <code>src</code>
+   * @param src Buffer holding <code>blocks.length</code> blocks
+   * @return The number of transfers made
+   * @throws IllegalArgumentException If a block is not on the disk or
+   *                                  <code>src</code> is too small
+   */
+  public int writeBlocks(int[] blocks, ByteBuffer src) {
+    checkBlocks("writeBlocks", blocks, src);
+    int blockSize = geometry.getBlockSize();
+    int base = src.position();
+    int transfers = 0;
+
+    for (int first = 0; first < blocks.length; ) {
+      int length = runLength(blocks, first);
+      if (blocks[first] >= 0) {
+        mappedDisk.put(dataRegionOffset + blocks[first] * blockSize, src,
+                       base + first * blockSize, length * blockSize);
+        counters.blocksWritten(length, (long) length * blockSize);
+        transfers++;
+      }
+      first += length;
+    }
+
+    src.position(base + blocks.length * blockSize);
+    return transfers;
+  }
+
+  /**
+   * Returns how many entries starting at <code>first</code> form a run:
+   * consecutive block numbers, or consecutive skipped entries
+   */
+  private static int runLength(int[] blocks, int first) {
+    int length = 1;
+    while (first + length < blocks.length) {
+      int previous = blocks[first + length - 1];
+      int next = blocks[first + length];
+      boolean continues = previous < 0 ? next < 0 : next == previous + 1;
+      if (!continues) {
+        break;
+      }
+      length++;
+    }
+    return length;
+  }
+
+  private void checkBlocks(String method, int[] blocks, ByteBuffer buffer) {
+    if (buffer.remaining() < (long) blocks.length * geometry.getBlockSize()) {
+      throw new IllegalArgumentException("Disk::" + method + ":  " +
+                                         "buffer holds " + buffer.remaining() +
+                                         " bytes instead of " + blocks.length + " blocks");
+    }
+    for (int block : blocks) {
+      if (block >= geometry.getNumBlocks()) {
+        throw new IllegalArgumentException("Disk::" + method + ":  " +
+                                           "block " + block + " is not on the disk");
+      }
+    }
   }
 
   /***
@@ -0,0 +1,113 @@
+package filesystem;
+
+
+/**
+ * Shape of a disk:  the size of a block, the number of data blocks and the
+ * number of inodes.  The geometry is recorded in the superblock when a disk
+ * is formatted and read back when it is mounted, so the rest of the file
+ * system sizes itself from the disk rather than from constants.
+ */
+public final class DiskGeometry {
+    /**
+     * The geometry of the original disk, also used for images that have no
+     * superblock
+     */
+    public static final DiskGeometry DEFAULT =
+            new DiskGeometry(Disk.BLOCK_SIZE, Disk.NUM_BLOCKS, Disk.NUM_INODES);
+
+    public static final int MIN_BLOCK_SIZE = 512;
+    public static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    private final int blockSize;
+    private final int numBlocks;
+    private final int numInodes;
+
+    /**
+     * @param blockSize Bytes in a block, a power of two from 512 to 64 KB
+     * @param numBlocks Number of data blocks, a positive multiple of 8
+     * @param numInodes Number of inodes, and so the largest number of files
+     * @throws IllegalArgumentException If a value is out of range
+     */
+    public DiskGeometry(int blockSize, int numBlocks, int numInodes) {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("DiskGeometry::DiskGeometry:  " +
+                    "block size " + blockSize + " is not a power of two from " +
+                    MIN_BLOCK_SIZE + " to " + MAX_BLOCK_SIZE);
+        }
+        if (numBlocks <= 0 || numBlocks % Byte.SIZE != 0) {
+            throw new IllegalArgumentException("DiskGeometry::DiskGeometry:  " +
+                    "block count " + numBlocks + " is not a positive multiple of " + Byte.SIZE);
+        }
+        if (numInodes <= 0) {
+            throw new IllegalArgumentException("DiskGeometry::DiskGeometry:  " +
+                    "inode count " + numInodes + " is not positive");
+        }
+        this.blockSize = blockSize;
+        this.numBlocks = numBlocks;
+        this.numInodes = numInodes;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getNumBlocks() {
+        return numBlocks;
+    }
+
+    public int getNumInodes() {
+        return numInodes;
+    }
+
+    /**
+     * Returns the length of the free block list, one bit per data block
+     */
+    public int getFreeListBytes() {
+        return numBlocks / Byte.SIZE;
+    }
+
+    /**
+     * Returns the number of block pointers held by one indirect block
+     */
+    public int getPointersPerBlock() {
+        return blockSize / Integer.BYTES;
+    }
+
+    /**
+     * Returns the largest number of data blocks a file can have:  the direct
+     * pointers, one single-indirect block and one double-indirect block
+     */
+    public long getMaxFileBlocks() {
+        long pointersPerBlock = getPointersPerBlock();
+        return INode.NUM_BLOCK_POINTERS + pointersPerBlock + pointersPerBlock * pointersPerBlock;
+    }
+
+    /**
+     * Returns the size of the largest file.  The size field of an inode is
+     * an int, which limits files on disks with large blocks.
+     */
+    public long getMaxFileSize() {
+        return Math.min(getMaxFileBlocks() * blockSize, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof DiskGeometry)) {
+            return false;
+        }
+        DiskGeometry geometry = (DiskGeometry) other;
+        return blockSize == geometry.blockSize &&
+                numBlocks == geometry.numBlocks &&
+                numInodes == geometry.numInodes;
+    }
+
+    @Override
+    public int hashCode() {
+        return (blockSize * 31 + numBlocks) * 31 + numInodes;
+    }
+
+    @Override
+    public String toString() {
+        return numBlocks + " blocks of " + blockSize + " bytes, " + numInodes + " inodes";
+    }
+}
@@ -0,0 +1,36 @@
+package filesystem;
+
+
+/**
+ * When <code>FileSystem</code> forces committed metadata to the underlying
+ * file.  Every mode writes the same journal transactions; they differ only
+ * in how often an fsync makes them survive a machine crash.  An explicit
+ * <code>sync</code> or <code>unmount</code> always forces everything.
+ */
+public enum DurabilityMode {
+    /**
+     * Never force on close, rename or delete.  Changes survive a crash of
+     * the process but not of the machine until the next explicit sync.
+     */
+    NONE,
+
+    /**
+     * Every close, rename and delete forces its own commit before
+     * returning, one fsync per call.
+     */
+    SYNC_ON_CLOSE,
+
+    /**
+     * Commits are not forced; a background thread commits and forces the
+     * whole disk at a fixed interval, bounding how much a machine crash
+     * can lose.
+     */
+    PERIODIC,
+
+    /**
+     * Every close, rename and delete is forced before returning, but
+     * callers that arrive while a commit is being forced wait for the next
+     * one and share its fsync.
+     */
+    GROUP_COMMIT
+}
@@ -0,0 +1,294 @@
+package filesystem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * In-memory index of the inode table, used as the directory entry cache.
+ * For every directory it maps the names in it to the numbers of the inodes
+ * holding them, so that lookups do not have to decode every inode on the
+ * disk.  Which inodes are free is kept by <code>INodeBitmap</code>.
+ *
+ * Each inode stores its own name and the inode number of the directory
+ * it is in, <code>ROOT</code> for the root directory, which has no inode.
+ * A path such as <code>/a/b/c</code> is resolved one component at a time,
+ * each a hash lookup in the entries of the directory before it, so no
+ * directory is read from the disk.  A leading slash is optional, and names
+ * without one are in the root directory as before directories existed.
+ *
+ * The index is built once when the file system is mounted and is kept up
+ * to date by <code>FileSystem</code> on create, delete, rename, mkdir and
+ * rmdir.  It is not thread-safe on its own; <code>FileSystem</code> guards
+ * it with its namespace lock.
+ */
+class FileNameIndex {
+    /**
+     * Parent of the entries of the root directory
+     */
+    static final int ROOT = -1;
+
+    /**
+     * Returned when a path does not lead to a directory
+     */
+    static final int NOT_FOUND = -2;
+
+    private static final String SEPARATOR = "/";
+
+    private final Map<Integer, Map<String, Integer>> entriesByDirectory;
+    private final int[] parents;
+    private final BitSet directories;
+
+    FileNameIndex(int numINodes) {
+        this.entriesByDirectory = new HashMap<>();
+        this.entriesByDirectory.put(ROOT, new HashMap<>());
+        this.parents = new int[numINodes];
+        this.directories = new BitSet(numINodes);
+    }
+
+    /**
+     * Builds the index from the inodes in use, decoding only those.  An
+     * inode marked in use without a name is returned to the bitmap.
+     *
+     * @param iNodeCache Cached inode table to index
+     * @param usedINodes Which inodes are in use
+     * @return The index for the inode table
+     * @throws IOException If an inode cannot be read
+     */
+    static FileNameIndex build(INodeCache iNodeCache, INodeBitmap usedINodes) throws IOException {
+        FileNameIndex index = new FileNameIndex(iNodeCache.size());
+
+        for (int i = usedINodes.nextUsed(0); i >= 0; i = usedINodes.nextUsed(i + 1)) {
+            INode inode = iNodeCache.get(i);
+            String name = inode.getFileName();
+            if (name == null) {
+                usedINodes.release(i);
+            } else if (inode.isDirectory()) {
+                index.addDirectory(inode.getParent(), name, i);
+            } else {
+                index.add(inode.getParent(), name, i);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the inode number holding the file or directory at
+     * <code>path</code>
+     *
+     * @param path Path of the file or directory
+     * @return The inode number, or -1 if nothing is at that path
+     */
+    int lookup(String path) {
+        int directory = parentOf(path);
+        return directory == NOT_FOUND ? -1 : lookup(directory, baseName(path));
+    }
+
+    /**
+     * Returns the inode number holding <code>name</code> in directory
+     * <code>directory</code>, or -1 if the directory has no such entry
+     */
+    int lookup(int directory, String name) {
+        Map<String, Integer> entries = entriesByDirectory.get(directory);
+        Integer iNodeNumber = entries == null ? null : entries.get(key(name));
+        return iNodeNumber == null ? -1 : iNodeNumber;
+    }
+
+    boolean contains(int directory, String name) {
+        return lookup(directory, name) >= 0;
+    }
+
+    /**
+     * Returns the directory holding the last component of <code>path</code>
+     *
+     * @return The directory's inode number, <code>ROOT</code>, or
+     *         <code>NOT_FOUND</code> if a component before the last is
+     *         missing or not a directory
+     */
+    int parentOf(String path) {
+        if (!path.contains(SEPARATOR)) {
+            return ROOT;
+        }
+
+        String[] components = components(path);
+        int directory = ROOT;
+        for (int i = 0; i < components.length - 1; i++) {
+            directory = lookup(directory, components[i]);
+            if (directory < 0 || !isDirectory(directory)) {
+                return NOT_FOUND;
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Returns the directory at <code>path</code>; an empty path or a lone
+     * slash is the root directory
+     *
+     * @return The directory's inode number, <code>ROOT</code>, or
+     *         <code>NOT_FOUND</code> if the path is not a directory
+     */
+    int lookupDirectory(String path) {
+        if (components(path).length == 0) {
+            return ROOT;
+        }
+        int iNodeNumber = lookup(path);
+        return iNodeNumber >= 0 && isDirectory(iNodeNumber) ? iNodeNumber : NOT_FOUND;
+    }
+
+    /**
+     * Returns the last component of <code>path</code>, the name of its
+     * entry in its directory
+     */
+    static String baseName(String path) {
+        if (!path.contains(SEPARATOR)) {
+            return path;
+        }
+        String[] components = components(path);
+        return components.length == 0 ? "" : components[components.length - 1];
+    }
+
+    /**
+     * Returns whether <code>path</code> ends in a name an entry can have.
+     * An empty path, a lone slash, a trailing slash or a blank last
+     * component do not:  the name would be stored empty, and an inode
+     * without a name is free when the disk is next mounted.
+     */
+    static boolean hasBaseName(String path) {
+        return !path.substring(path.lastIndexOf(SEPARATOR) + 1).trim().isEmpty();
+    }
+
+    boolean isDirectory(int iNodeNumber) {
+        return iNodeNumber >= 0 && directories.get(iNodeNumber);
+    }
+
+    /**
+     * Returns whether <code>iNodeNumber</code> is <code>directory</code> or
+     * one of the directories above it
+     */
+    boolean isWithin(int iNodeNumber, int directory) {
+        for (int current = iNodeNumber; current != ROOT; current = parents[current]) {
+            if (current == directory) {
+                return true;
+            }
+        }
+        return directory == ROOT;
+    }
+
+    /**
+     * Records that file <code>name</code> in directory <code>directory</code>
+     * now lives in inode <code>iNodeNumber</code>
+     */
+    void add(int directory, String name, int iNodeNumber) {
+        entriesByDirectory.computeIfAbsent(directory, d -> new HashMap<>()).put(key(name), iNodeNumber);
+        parents[iNodeNumber] = directory;
+    }
+
+    /**
+     * Records that directory <code>name</code> in directory
+     * <code>directory</code> now lives in inode <code>iNodeNumber</code>
+     */
+    void addDirectory(int directory, String name, int iNodeNumber) {
+        add(directory, name, iNodeNumber);
+        directories.set(iNodeNumber);
+        entriesByDirectory.putIfAbsent(iNodeNumber, new HashMap<>());
+    }
+
+    /**
+     * Removes the entry <code>name</code> from directory <code>directory</code>.
+     * Its inode stays reserved until released from the
+     * <code>INodeBitmap</code>, which for a file deleted while still open
+     * happens on its last close.  A directory's own entries are forgotten too.
+     *
+     * @return The inode number that held the entry, or -1 if it was not indexed
+     */
+    int unlink(int directory, String name) {
+        Map<String, Integer> entries = entriesByDirectory.get(directory);
+        Integer iNodeNumber = entries == null ? null : entries.remove(key(name));
+        if (iNodeNumber == null) {
+            return -1;
+        }
+        if (directories.get(iNodeNumber)) {
+            directories.clear(iNodeNumber);
+            entriesByDirectory.remove(iNodeNumber);
+        }
+        return iNodeNumber;
+    }
+
+    /**
+     * Moves the entry <code>oldName</code> of directory <code>oldDirectory</code>
+     * to <code>newName</code> in directory <code>newDirectory</code>
+     */
+    void move(int oldDirectory, String oldName, int newDirectory, String newName) {
+        Integer iNodeNumber = entriesByDirectory.get(oldDirectory).remove(key(oldName));
+        if (iNodeNumber != null) {
+            entriesByDirectory.get(newDirectory).put(key(newName), iNodeNumber);
+            parents[iNodeNumber] = newDirectory;
+        }
+    }
+
+    /**
+     * Returns the names in directory <code>directory</code> in sorted order
+     */
+    List<String> list(int directory) {
+        List<String> names = new ArrayList<>(entriesByDirectory.get(directory).keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    boolean isEmpty(int directory) {
+        return entriesByDirectory.get(directory).isEmpty();
+    }
+
+    /**
+     * Returns every file, by path from the root directory, and its inode
+     * number.  Files in the root directory are named without a leading slash.
+     */
+    Map<String, Integer> entries() {
+        Map<String, Integer> files = new LinkedHashMap<>();
+        addFiles("", ROOT, files);
+        return Collections.unmodifiableMap(files);
+    }
+
+    private void addFiles(String prefix, int directory, Map<String, Integer> files) {
+        for (Map.Entry<String, Integer> entry : entriesByDirectory.get(directory).entrySet()) {
+            if (isDirectory(entry.getValue())) {
+                addFiles(prefix + entry.getKey() + SEPARATOR, entry.getValue(), files);
+            } else {
+                files.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries in all directories
+     */
+    int size() {
+        int total = 0;
+        for (Map<String, Integer> entries : entriesByDirectory.values()) {
+            total += entries.size();
+        }
+        return total;
+    }
+
+    private static String[] components(String path) {
+        return Arrays.stream(path.split(SEPARATOR))
+                .filter(component -> !component.trim().isEmpty())
+                .toArray(String[]::new);
+    }
+
+    /**
+     * Names are stored in fixed 64 byte fields padded with zeros, which
+     * <code>String.trim()</code> removes, so lookups use trimmed names.
+     */
+    private static String key(String fileName) {
+        return fileName.trim();
+    }
+}
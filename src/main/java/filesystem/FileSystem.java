@@ -1,330 +1,2033 @@
 package filesystem;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+import javax.management.JMException;
 
 
+/**
+ * A simple file system stored on a <code>Disk</code>.
+ *
+ * Files and directories are named by paths such as <code>/a/b/c</code>;
+ * a name without a slash is in the root directory.  Paths are resolved
+ * through the in-memory <code>FileNameIndex</code>.
+ *
+ * The file system is safe for use by many threads.  The name space (file
+ * index and inode reservation) is guarded by one read/write lock; each
+ * file's inode, block pointers and descriptors are guarded by a striped
+ * per-inode read/write lock, so reads of different files proceed in
+ * parallel.  The free block list, block cache, inode cache and open file
+ * table each have their own internal locks.  Locks are always taken in the
+ * order name space, inode, metadata, then internal.
+ *
+ * Changes to the free block list, inodes and indirect blocks are kept in
+ * memory and written to the disk together by a metadata commit, which goes
+ * through the disk's <code>Journal</code> so a crash never leaves them half
+ * written.  Operations that change metadata hold the metadata lock shared;
+ * a commit holds it exclusively while it takes its snapshot, so the
+ * snapshot never contains half an operation.  Close, rename, delete and
+ * sync commit; whether those commits are forced to the file is chosen by
+ * the <code>DurabilityMode</code>.
+ *
+ * Reads through a descriptor that follow on from each other are detected
+ * per descriptor, and the blocks ahead of them are read into the block
+ * cache by a background thread while the caller consumes what it has.
+ */
 public class FileSystem {
     private Disk diskDevice;
+    // write-back cache of data blocks in front of the disk
+    private BlockCache blockCache;
+    // decoded pointers of the indirect blocks of large files
+    private IndirectBlockCache indirectBlocks;
 
-    private int iNodeNumber;
-    private int fileDescriptor;
-    private INode iNodeForFile;
     // gives you a list of all the free blocks for allocation
     private FreeBlockList freeBlockList;
+    // decoded inodes, written back by the next metadata commit
+    private INodeCache iNodeCache;
+    // maps paths to inode numbers
+    private FileNameIndex fileNameIndex;
+    // which inodes are in use, persisted next to the free block list
+    private INodeBitmap iNodeBitmap;
+    // every open file descriptor and the inode it refers to
+    private OpenFileTable openFiles;
+    // inodes deleted while still open, reclaimed on their last close
+    private Set<Integer> orphanedINodes;
+    // latency histograms, I/O counters and space gauges
+    private FileSystemMetrics metrics;
+    // write-ahead log of metadata commits, or null on disks without one
+    private Journal journal;
+    // how free blocks are chosen when a file needs space
+    private volatile AllocationPolicy allocationPolicy = AllocationPolicy.BEST_FIT_EXTENT;
+    // when commits are forced to the file
+    private volatile DurabilityMode durabilityMode = DurabilityMode.GROUP_COMMIT;
+    // forces the disk in the background in PERIODIC mode, null otherwise
+    private ScheduledExecutorService periodicSync;
+    private final ReentrantLock durabilityLock = new ReentrantLock();
+    // reads blocks ahead of sequential readers; drops requests when behind
+    private final ThreadPoolExecutor prefetcher;
+    // largest read-ahead window in blocks, 0 to turn read-ahead off
+    private volatile int readAheadBlocks = DEFAULT_READ_AHEAD_BLOCKS;
+
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100;
+    public static final int DEFAULT_READ_AHEAD_BLOCKS = 64;
+
+    /**
+     * Prefetch requests waiting for the background thread beyond which new
+     * ones are dropped
+     */
+    private static final int PREFETCH_QUEUE_SIZE = 64;
+
+    /**
+     * A commit checkpoints the journal when at least this fraction of the
+     * disk is held back as freed pointer blocks waiting for one
+     */
+    private static final int HELD_BLOCKS_DIVISOR = 64;
+
+    // block size and indirect block fan-out of the mounted disk
+    private final int blockSize;
+    private final int pointersPerBlock;
+    private final byte[] zeroBlock;
+
+    private final ReentrantReadWriteLock namespaceLock = new ReentrantReadWriteLock();
+    private final StripedLocks iNodeLocks = new StripedLocks();
+    // shared by operations changing metadata, exclusive while a commit takes its snapshot
+    private final ReentrantReadWriteLock metadataLock = new ReentrantReadWriteLock();
+
+    // one commit at a time; requests made while one runs are batched into the next
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final AtomicLong commitRequests = new AtomicLong();
+    private volatile long committedRequests;
+    private volatile long forcedRequests;
+    // whether a commit since the last forced one left changes unforced; guarded by commitLock
+    private boolean unforcedCommits;
+    private volatile long commits;
+
+    /***
+     * Formats the default disk and mounts the empty file system on it
+     *
+     * @throws IOException If the disk cannot be formatted
+     */
     public FileSystem() throws IOException {
-        diskDevice = new Disk();
-        diskDevice.format();
-        freeBlockList = new FreeBlockList();
+        this(formatted(new Disk()));
+    }
+
+    /***
+     * Formats the disk stored in <code>diskFileName</code>, discarding any
+     * files on it, and mounts the empty file system
+     *
+     * @param diskFileName Path of the disk image
+     * @return The mounted file system
+     * @throws IOException If the disk cannot be formatted
+     */
+    public static FileSystem format(String diskFileName) throws IOException {
+        return format(diskFileName, DiskGeometry.DEFAULT);
+    }
+
+    /***
+     * Formats the disk stored in <code>diskFileName</code> with the given
+     * block size, block count and inode count, discarding any files on it,
+     * and mounts the empty file system
+     *
+     * @param diskFileName Path of the disk image
+     * @param geometry Shape of the new disk
+     * @return The mounted file system
+     * @throws IOException If the disk cannot be formatted
+     */
+    public static FileSystem format(String diskFileName, DiskGeometry geometry) throws IOException {
+        Disk disk = new Disk(diskFileName);
+        disk.format(geometry);
+        return new FileSystem(disk);
+    }
+
+    /***
+     * Mounts the file system already stored in <code>diskFileName</code>.
+     * Metadata commits left in the journal are replayed first, then only the
+     * free block list, the inode bitmap and the inodes in use are read; data
+     * blocks are read as files use them.
+     *
+     * @param diskFileName Path of the disk image
+     * @return The mounted file system
+     * @throws IOException If the image does not exist or is not a disk
+     */
+    public static FileSystem mount(String diskFileName) throws IOException {
+        Disk disk = new Disk(diskFileName);
+        disk.mount();
+        return new FileSystem(disk);
+    }
+
+    private static Disk formatted(Disk disk) throws IOException {
+        disk.format();
+        return disk;
+    }
+
+    private FileSystem(Disk disk) throws IOException {
+        diskDevice = disk;
+        blockSize = disk.getBlockSize();
+        pointersPerBlock = disk.getGeometry().getPointersPerBlock();
+        zeroBlock = new byte[blockSize];
+        prefetcher = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(PREFETCH_QUEUE_SIZE), task -> {
+                    Thread thread = new Thread(task, "filesystem-read-ahead");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+        prefetcher.allowCoreThreadTimeOut(true);
+        // replay before anything reads the metadata the journal may update
+        journal = disk.hasJournal() ? Journal.open(disk) : null;
+        blockCache = new BlockCache(diskDevice);
+        indirectBlocks = new IndirectBlockCache(diskDevice);
+        freeBlockList = new FreeBlockList(disk.getNumBlocks());
+        freeBlockList.setFreeBlockList(diskDevice.readFreeBlockList());
+        iNodeCache = INodeCache.load(diskDevice);
+        iNodeBitmap = INodeBitmap.load(diskDevice);
+        fileNameIndex = FileNameIndex.build(iNodeCache, iNodeBitmap);
+        openFiles = new OpenFileTable();
+        orphanedINodes = ConcurrentHashMap.newKeySet();
+        metrics = new FileSystemMetrics(disk.getCounters(),
+                freeBlockList::getFreeBlockCount, this::getFreeINodeCount);
     }
 
     /***
-     * Create a file with the name <code>fileName</code>
+     * Create a file with the name <code>fileName</code> and open it for
+     * reading and writing
      *
-     * @param fileName - name of the file to create
-     * @throws IOException
+     * @param fileName - path of the file to create
+     * @return The file descriptor of the new file
+     * @throws IOException If the file already exists, its directory does
+     *                     not exist, the path does not end in a name or
+     *                     there is no free inode
      */
     public int create(String fileName) throws IOException {
-        INode tmpINode = null;
-        boolean isCreated = false;
+        long start = System.nanoTime();
+        try {
+            Lock namespace = namespaceLock.writeLock();
+            namespace.lock();
+            try {
+                /**
+                 * The new inode is written to the disk when the file is closed
+                 */
+                int freeINode = createEntry("create", fileName, false);
+                return openFiles.open(freeINode, iNodeCache.get(freeINode), OpenMode.READ_WRITE).getDescriptor();
+            } finally {
+                namespace.unlock();
+            }
+        } finally {
+            metrics.record(FileSystemMetrics.Operation.CREATE, start);
+        }
+    }
+
+    /***
+     * Creates an empty directory
+     *
+     * @param path Path of the new directory
+     * @throws IOException If something already exists at <code>path</code>,
+     *                     its parent directory does not exist, the path
+     *                     does not end in a name or there is no free inode
+     */
+    public void mkdir(String path) throws IOException {
+        Lock namespace = namespaceLock.writeLock();
+        namespace.lock();
+        try {
+            createEntry("mkdir", path, true);
+        } finally {
+            namespace.unlock();
+        }
+
+        commitMetadata();
+    }
+
+    /***
+     * Removes an empty directory
+     *
+     * @param path Path of the directory
+     * @throws IOException If <code>path</code> is not a directory or the
+     *                     directory is not empty
+     */
+    public void rmdir(String path) throws IOException {
+        Lock namespace = namespaceLock.writeLock();
+        namespace.lock();
+        try {
+            int directory = fileNameIndex.lookup(path);
+
+            if (!fileNameIndex.isDirectory(directory)) {
+                throw new IOException("FileSystem::rmdir: " + path + " is not a directory");
+            }
+            if (!fileNameIndex.isEmpty(directory)) {
+                throw new IOException("FileSystem::rmdir: " + path + " is not empty");
+            }
+
+            fileNameIndex.unlink(fileNameIndex.parentOf(path), FileNameIndex.baseName(path));
+            reclaimINode(directory);
+        } finally {
+            namespace.unlock();
+        }
+
+        commitMetadata();
+    }
 
-        for (int i = 0; i < Disk.NUM_INODES && !isCreated; i++) {
-            tmpINode = diskDevice.readInode(i);
-            String name = tmpINode.getFileName();
+    /***
+     * Lists the names in a directory
+     *
+     * @param path Path of the directory; an empty path or "/" is the root
+     * @return The names of the files and directories in it, sorted
+     * @throws IOException If <code>path</code> is not a directory
+     */
+    public List<String> list(String path) throws IOException {
+        Lock namespace = namespaceLock.readLock();
+        namespace.lock();
+        try {
+            int directory = fileNameIndex.lookupDirectory(path);
 
-            // Check if the name is null before trimming
-            if (name != null && name.trim().equals(fileName)) {
-                throw new IOException("FileSystem::create: " + fileName + " already exists");
-            } else if (name == null) { // Unused inode found
-                this.iNodeForFile = new INode();
-                this.iNodeForFile.setFileName(fileName);
-                this.iNodeNumber = i;
-                this.fileDescriptor = i;
-                isCreated = true;
+            if (directory == FileNameIndex.NOT_FOUND) {
+                throw new IOException("FileSystem::list: " + path + " is not a directory");
             }
+            return fileNameIndex.list(directory);
+        } finally {
+            namespace.unlock();
+        }
+    }
+
+    /**
+     * Reserves an inode for a new file or directory at <code>path</code> and
+     * enters it in the index and the inode cache.  The caller holds the name
+     * space write lock.
+     *
+     * @return The new inode number
+     */
+    private int createEntry(String operation, String path, boolean directory) throws IOException {
+        int parent = fileNameIndex.parentOf(path);
+        String name = FileNameIndex.baseName(path);
+
+        if (!FileNameIndex.hasBaseName(path)) {
+            throw new IOException("FileSystem::" + operation + ": " + path + " does not end in a name");
+        }
+        if (parent == FileNameIndex.NOT_FOUND) {
+            throw new IOException("FileSystem::" + operation + ": directory of " + path + " not found");
+        }
+        if (fileNameIndex.contains(parent, name)) {
+            throw new IOException("FileSystem::" + operation + ": " + path + " already exists");
+        }
+
+        int freeINode = iNodeBitmap.findFree();
+        if (freeINode < 0) {
+            throw new IOException("FileSystem::" + operation + ": Unable to create file");
         }
 
-        if (!isCreated) {
-            throw new IOException("FileSystem::create: Unable to create file");
+        INode inode = new INode();
+        inode.setFileName(name);
+        inode.setParent(parent);
+        inode.setDirectory(directory);
+        Lock metadata = metadataLock.readLock();
+        metadata.lock();
+        try {
+            iNodeCache.put(freeINode, inode);
+            iNodeBitmap.allocate(freeINode);
+            if (directory) {
+                iNodeCache.markDirty(freeINode);
+            }
+        } finally {
+            metadata.unlock();
         }
 
-        return fileDescriptor;
+        if (directory) {
+            fileNameIndex.addDirectory(parent, name, freeINode);
+        } else {
+            fileNameIndex.add(parent, name, freeINode);
+        }
+        return freeINode;
     }
 
 
     /**
-     * Removes the file
+     * Removes the file.  If the file is still open its name is removed
+     * right away, but its inode and blocks are only released when the
+     * last descriptor for it is closed.
      *
      * @param fileName
-     * @throws IOException
+     * @throws IOException If the file does not exist
      */
     public void delete(String fileName) throws IOException {
-        INode tmpINode = null;
-        boolean isFound = false;
-        int inodeNumForDeletion = -1;
-
-        /**
-         * Find the non-null named inode that matches,
-         * If you find it, set its file name to null
-         * to indicate it is unused
-         */
-        for (int i = 0; i < Disk.NUM_INODES && !isFound; i++) {
-            tmpINode = diskDevice.readInode(i);
-
-            String fName = tmpINode.getFileName();
-
-            if (fName != null && fName.trim().compareTo(fileName.trim()) == 0) {
-                isFound = true;
-                inodeNumForDeletion = i;
-                break;
+        long start = System.nanoTime();
+        try {
+            boolean reclaimed;
+
+            Lock namespace = namespaceLock.writeLock();
+            namespace.lock();
+            try {
+                int directory = fileNameIndex.parentOf(fileName);
+                int inodeNumForDeletion = fileNameIndex.lookup(fileName);
+
+                if (inodeNumForDeletion < 0) {
+                    throw new IOException("FileSystem::delete: file not found");
+                }
+                if (fileNameIndex.isDirectory(inodeNumForDeletion)) {
+                    throw new IOException("FileSystem::delete: " + fileName + " is a directory");
+                }
+
+                fileNameIndex.unlink(directory, FileNameIndex.baseName(fileName));
+
+                reclaimed = openFiles.getReferenceCount(inodeNumForDeletion) == 0;
+                if (reclaimed) {
+                    reclaimINode(inodeNumForDeletion);
+                } else {
+                    orphanedINodes.add(inodeNumForDeletion);
+                }
+            } finally {
+                namespace.unlock();
+            }
+
+            if (reclaimed) {
+                commitMetadata();
             }
+        } finally {
+            metrics.record(FileSystemMetrics.Operation.DELETE, start);
         }
+    }
+
+
+    /***
+     * Changes the name of the file or directory <code>oldName</code> to
+     * <code>newName</code>, which may be in another directory
+     *
+     * @param oldName Current path of the file or directory
+     * @param newName New path of the file or directory
+     * @throws IOException If <code>oldName</code> does not exist, <code>newName</code>
+     *                     does not end in a name, already exists or its
+     *                     directory does not, or a directory would be
+     *                     moved into itself
+     */
+    public void rename(String oldName, String newName) throws IOException {
+        Lock namespace = namespaceLock.writeLock();
+        namespace.lock();
+        try {
+            int oldDirectory = fileNameIndex.parentOf(oldName);
+            int iNodeNum = fileNameIndex.lookup(oldName);
+            int newDirectory = fileNameIndex.parentOf(newName);
+            String newBaseName = FileNameIndex.baseName(newName);
+
+            if (iNodeNum < 0) {
+                throw new IOException("FileSystem::rename: file not found");
+            }
+            if (!FileNameIndex.hasBaseName(newName)) {
+                throw new IOException("FileSystem::rename: " + newName + " does not end in a name");
+            }
+            if (newDirectory == FileNameIndex.NOT_FOUND) {
+                throw new IOException("FileSystem::rename: directory of " + newName + " not found");
+            }
+            if (fileNameIndex.contains(newDirectory, newBaseName)) {
+                throw new IOException("FileSystem::rename: " + newName + " already exists");
+            }
+            if (fileNameIndex.isDirectory(iNodeNum) && fileNameIndex.isWithin(newDirectory, iNodeNum)) {
+                throw new IOException("FileSystem::rename: cannot move " + oldName + " into itself");
+            }
 
-        /***
-         * If file found, go ahead and deallocate its
-         * blocks and null out the filename.
-         */
-        if (isFound) {
-            deallocateBlocksForFile(inodeNumForDeletion);
-            tmpINode.setFileName(null);
-            diskDevice.writeInode(tmpINode, inodeNumForDeletion);
-            this.iNodeForFile = null;
-            this.fileDescriptor = -1;
-            this.iNodeNumber = -1;
+            Lock iNodeLock = iNodeLocks.forINode(iNodeNum).writeLock();
+            Lock metadata = metadataLock.readLock();
+            iNodeLock.lock();
+            metadata.lock();
+            try {
+                INode inode = iNodeCache.get(iNodeNum);
+                inode.setFileName(newBaseName);
+                inode.setParent(newDirectory);
+                iNodeCache.markDirty(iNodeNum);
+            } finally {
+                metadata.unlock();
+                iNodeLock.unlock();
+            }
+            fileNameIndex.move(oldDirectory, FileNameIndex.baseName(oldName), newDirectory, newBaseName);
+        } finally {
+            namespace.unlock();
         }
+
+        commitMetadata();
     }
 
 
     /***
      * Makes the file available for reading/writing
      *
-     * @return
-     * @throws IOException
+     * @return The file descriptor of the opened file
+     * @throws IOException If the file does not exist
      */
     public int open(String fileName) throws IOException {
-        this.fileDescriptor = -1;
-        this.iNodeNumber = -1;
-        INode tmpINode = null;
-        boolean isFound = false;
-        int iNodeContainingName = -1;
-
-        for (int i = 0; i < Disk.NUM_INODES && !isFound; i++) {
-            tmpINode = diskDevice.readInode(i);
-            String fName = tmpINode.getFileName();
-            if (fName != null) {
-                if (fName.trim().compareTo(fileName.trim()) == 0) {
-                    isFound = true;
-                    iNodeContainingName = i;
-                    this.iNodeForFile = tmpINode;
+        return open(fileName, OpenMode.READ_WRITE);
+    }
+
+
+    /***
+     * Opens the file with the access given by <code>mode</code>.  Every call
+     * returns a new descriptor, so the same file may be open several times.
+     *
+     * @param fileName Name of the file
+     * @param mode Access allowed through the returned descriptor
+     * @return The file descriptor of the opened file
+     * @throws IOException If the file does not exist
+     */
+    public int open(String fileName, OpenMode mode) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Lock namespace = namespaceLock.readLock();
+            namespace.lock();
+            try {
+                int iNodeContainingName = fileNameIndex.lookup(fileName);
+
+                if (iNodeContainingName < 0) {
+                    throw new IOException("FileSystem::open: file not found");
+                }
+                if (fileNameIndex.isDirectory(iNodeContainingName)) {
+                    throw new IOException("FileSystem::open: " + fileName + " is a directory");
                 }
-            }
-        }
 
-        if (isFound) {
-            this.fileDescriptor = iNodeContainingName;
-            this.iNodeNumber = fileDescriptor;
+                return openFiles.open(iNodeContainingName, iNodeCache.get(iNodeContainingName), mode)
+                        .getDescriptor();
+            } finally {
+                namespace.unlock();
+            }
+        } finally {
+            metrics.record(FileSystemMetrics.Operation.OPEN, start);
         }
-
-        return this.fileDescriptor;
     }
 
 
     /***
      * Closes the file
      *
-     * @throws IOException If disk is not accessible for writing
+     * @throws IOException If the descriptor is not open or the disk is not
+     *                     accessible for writing
      */
     public void close(int fileDescriptor) throws IOException {
-        if (fileDescriptor != this.iNodeNumber){
-            throw new IOException("FileSystem::close: file descriptor, "+
-                    fileDescriptor + " does not match file descriptor " +
-                    "of open file");
+        long start = System.nanoTime();
+        try {
+            OpenFile openFile;
+            boolean lastReferenceToDeletedFile;
+
+            /**
+             * Releasing the descriptor and checking for a pending delete happen
+             * under the name space lock so they cannot interleave with delete
+             */
+            Lock namespace = namespaceLock.readLock();
+            namespace.lock();
+            try {
+                openFile = openFiles.close(fileDescriptor);
+
+                if (openFile == null) {
+                    throw new IOException("FileSystem::close: file descriptor,"+
+                            fileDescriptor + " does not match file descriptor " +
+                            "to open file");
+                }
+
+                int iNodeNum = openFile.getINodeNumber();
+                lastReferenceToDeletedFile = openFiles.getReferenceCount(iNodeNum) == 0 &&
+                        orphanedINodes.remove(iNodeNum);
+            } finally {
+                namespace.unlock();
+            }
+
+            if (lastReferenceToDeletedFile) {
+                namespace = namespaceLock.writeLock();
+                namespace.lock();
+                try {
+                    reclaimINode(openFile.getINodeNumber());
+                } finally {
+                    namespace.unlock();
+                }
+            }
+
+            commitMetadata();
+        } finally {
+            metrics.record(FileSystemMetrics.Operation.CLOSE, start);
         }
-        diskDevice.writeInode(this.iNodeForFile, this.iNodeNumber);
-        this.iNodeForFile = null;
-        this.fileDescriptor = -1;
-        this.iNodeNumber = -1;
     }
 
 
-    /**
-     * Add your Javadoc documentation for this method
-     */
-    /**
-     * Reads data from the file specified by the file descriptor.
-     * @param fileDescriptor The descriptor of the file to be read.
-     * @return A string containing the contents of the file.
-     * @throws IOException If there are issues reading data from the disk.
+    /***
+     * Returns the number of file descriptors currently open
+     *
+     * @return The number of open descriptors
      */
-    public String read(int fileDescriptor) throws IOException {
-        // Retrieve inode
-        // Retrieves the file's inode using the fileDescriptor, which contains block pointers to locate the file's data
-        INode inode = diskDevice.readInode(fileDescriptor);
-        String fileData = "";
+    public int getOpenFileCount() {
+        return openFiles.size();
+    }
 
-        // Read Data Blocks
-        // Goes through each block pointer in the inode and reads the data stored in each block on the disk
-        for (int i = 0; i < INode.NUM_BLOCK_POINTERS; i++) {
-            int blockPointer = inode.getBlockPointer(i);
-            if (blockPointer >= 0) {
-                byte[] blockData = diskDevice.readDataBlock(blockPointer);
 
-                // Combine Data
-                // Adds the data from each block together into one string to rebuild the file's content
-                String data = new String(blockData).trim();
-                fileData += data;
+    /***
+     * Writes all cached data blocks back to the disk, commits the metadata
+     * and forces everything to the underlying file
+     *
+     * @throws IOException If the disk cannot be written
+     */
+    public void sync() throws IOException {
+        // the journal need not be forced separately, the whole disk is next
+        commitMetadata(false, true);
+        diskDevice.sync();
+    }
+
+    /***
+     * Writes everything to the disk and closes it.  The file system cannot
+     * be used afterwards; the image can be mounted again.
+     *
+     * @throws IOException If the disk cannot be written or closed
+     */
+    public void unmount() throws IOException {
+        stopPeriodicSync();
+        stopPrefetcher();
+        metrics.unregister();
+        commitMetadata(false, false);
+        // a clean image mounts without replaying anything
+        commitLock.lock();
+        try {
+            if (journal != null) {
+                journal.checkpoint();
+            } else {
+                diskDevice.sync();
             }
+        } finally {
+            commitLock.unlock();
         }
+        diskDevice.close();
+    }
 
-        // Return File Content
-        // After reading and combining all the blocks, the method returns the full content of the file as a string
-        return fileData;
+    /***
+     * Selects when commits made by close, rename, delete and truncate are
+     * forced to the underlying file.  <code>PERIODIC</code> forces every
+     * <code>DEFAULT_SYNC_INTERVAL_MILLIS</code> milliseconds.
+     *
+     * @param mode The durability mode to use from now on
+     */
+    public void setDurabilityMode(DurabilityMode mode) {
+        setDurabilityMode(mode, DEFAULT_SYNC_INTERVAL_MILLIS);
     }
 
-    /**
-     * Writes data to the file specified by the file descriptor.
-     * @param fileDescriptor The descriptor of the file to write to.
-     * @param data The string data to be written.
-     * @throws IOException If there are issues writing to the file.
+    /***
+     * Selects when commits made by close, rename, delete and truncate are
+     * forced to the underlying file
+     *
+     * @param mode The durability mode to use from now on
+     * @param intervalMillis Time between background syncs in
+     *                       <code>PERIODIC</code> mode; ignored otherwise
+     * @throws IllegalArgumentException If the interval is not positive
      */
-    public int write(int fileDescriptor, String data) throws IOException {
-        if (fileDescriptor != this.iNodeNumber) {
-            throw new IOException("Filesystem:write: file descriptor," + fileDescriptor +
-                    " does not match file descriptor of open file");
+    public void setDurabilityMode(DurabilityMode mode, long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("FileSystem::setDurabilityMode: " +
+                    "interval " + intervalMillis + " ms is not positive");
         }
+        Objects.requireNonNull(mode);
 
-        // Convert data to bytes
-        byte[] dataBytes = data.getBytes();
-        int dataSize = dataBytes.length;
-
-        // Allocate blocks if not already allocated
-        int[] blockNumbers = new int[INode.NUM_BLOCK_POINTERS];
-        for (int i = 0; i < INode.NUM_BLOCK_POINTERS; i++) {
-            blockNumbers[i] = this.iNodeForFile.getBlockPointer(i);
-        }
+        durabilityLock.lock();
+        try {
+            stopPeriodicSync();
+            durabilityMode = mode;
 
-        if (blockNumbers[0] == -1) { // No blocks allocated yet
-            int[] newBlockNumbers = allocateBlocksForFile(this.iNodeNumber, dataSize);
-            for (int i = 0; i < newBlockNumbers.length; i++) {
-                this.iNodeForFile.setBlockPointer(i, newBlockNumbers[i]);
+            if (mode == DurabilityMode.PERIODIC) {
+                periodicSync = Executors.newSingleThreadScheduledExecutor(task -> {
+                    Thread thread = new Thread(task, "filesystem-periodic-sync");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                periodicSync.scheduleWithFixedDelay(this::periodicSync,
+                        intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
             }
-            diskDevice.writeInode(this.iNodeForFile, this.iNodeNumber);
-            blockNumbers = newBlockNumbers;
+        } finally {
+            durabilityLock.unlock();
         }
+    }
 
-        // Write data to allocated blocks
-        int currentBlock = 0;
-        int currentByte = 0;
+    public DurabilityMode getDurabilityMode() {
+        return durabilityMode;
+    }
 
-        while (currentByte < dataSize) {
-            // Create a 512-byte buffer
-            byte[] buffer = new byte[Disk.BLOCK_SIZE];
-            int bytesToWrite = Math.min(Disk.BLOCK_SIZE, dataSize - currentByte);
+    /***
+     * Sets how far ahead of a sequential reader blocks may be read.  The
+     * window of each descriptor starts small and grows up to this limit
+     * while the blocks read ahead are used before they are evicted.
+     *
+     * @param maxBlocks Largest read-ahead window in blocks, 0 to turn
+     *                  read-ahead off
+     * @throws IllegalArgumentException If <code>maxBlocks</code> is negative
+     */
+    public void setReadAhead(int maxBlocks) {
+        if (maxBlocks < 0) {
+            throw new IllegalArgumentException("FileSystem::setReadAhead: " +
+                    "window of " + maxBlocks + " blocks is negative");
+        }
+        readAheadBlocks = maxBlocks;
+    }
 
-            // Copy data to the buffer
-            System.arraycopy(dataBytes, currentByte, buffer, 0, bytesToWrite);
+    public int getReadAhead() {
+        return readAheadBlocks;
+    }
 
-            // Write the buffer to the disk
-            diskDevice.writeDataBlock(buffer, blockNumbers[currentBlock]);
+    /***
+     * Reports how many commits were written and how often and for how long
+     * the disk was forced, to compare durability modes
+     *
+     * @return The counters since the file system was mounted
+     */
+    public SyncStatistics getSyncStatistics() {
+        return new SyncStatistics(durabilityMode, commits, diskDevice.getSyncCount(),
+                diskDevice.getTotalSyncNanos(), diskDevice.getMaxSyncNanos());
+    }
 
-            // Move to the next block
-            currentBlock++;
-            currentByte += Disk.BLOCK_SIZE;
-        }
 
-        // Update the inode size
-        this.iNodeForFile.setSize(dataSize);
-        diskDevice.writeInode(this.iNodeForFile, this.iNodeNumber);
+    /***
+     * Returns the geometry of the mounted disk
+     *
+     * @return Block size, block count and inode count of the disk
+     */
+    public DiskGeometry getGeometry() {
+        return diskDevice.getGeometry();
+    }
 
-        return fileDescriptor;
+    /***
+     * Copies the latency histograms of create, open, read, write, close and
+     * delete, the disk's I/O counters and the free block and inode counts
+     *
+     * @return The metrics as they are now
+     */
+    public FileSystemMetrics.Snapshot metrics() {
+        return metrics.snapshot();
     }
 
+    /***
+     * Returns the live metrics registry, e.g. to read one histogram without
+     * copying the rest
+     *
+     * @return The metrics registry of this file system
+     */
+    public FileSystemMetrics getMetrics() {
+        return metrics;
+    }
 
+    /***
+     * Makes the metrics readable through JMX under the name
+     * <code>name</code> until the file system is unmounted
+     *
+     * @param name Distinguishes this file system from others in the JVM
+     * @throws JMException If the MBeans cannot be registered
+     */
+    public void registerMBeans(String name) throws JMException {
+        metrics.register(name);
+    }
 
-/**
- * Allocates the necessary blocks for a file based on its size.
- * @param iNodeNumber The inode number for the file.
- * @param numBytes The size of the file in bytes.
- * @return An array of allocated block numbers.
- * @throws IOException If there are no enough free blocks available.
- */
+    private int getFreeINodeCount() {
+        Lock namespace = namespaceLock.readLock();
+        namespace.lock();
+        try {
+            return iNodeBitmap.getFreeCount();
+        } finally {
+            namespace.unlock();
+        }
+    }
 
     /**
-     * It calculates how many blocks are need to be allocated.
-     * It uses a forloop to keep track of what blocks were allocated.
+     * Returns the inode the file open on <code>fileDescriptor</code> is
+     * stored in; descriptors are slots of the open file table, not inodes
+     */
+    int getINodeNumber(int fileDescriptor) throws IOException {
+        return openFileFor(fileDescriptor, "getINodeNumber", false, false).getINodeNumber();
+    }
+
+    /***
+     * Returns the data block cache, e.g. to inspect its hit and miss counters
      *
+     * @return The block cache used by this file system
      */
-    private int[] allocateBlocksForFile(int iNodeNumber, int numBytes) throws IOException {
-        // Step 1: Calculate required blocks
-        int numBlocksNeeded = (numBytes + Disk.BLOCK_SIZE - 1) / Disk.BLOCK_SIZE;
-        if (numBlocksNeeded > INode.NUM_BLOCK_POINTERS) {
-            throw new IOException("File size exceeds maximum supported size.");
-        }
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+
+    /**
+     * Add your Javadoc documentation for this method
+     */
+    /**
+     * Reads data from the file specified by the file descriptor.
+     * @param fileDescriptor The descriptor of the file to be read.
+     * @return A string containing the contents of the file.
+     * @throws IOException If there are issues reading data from the disk.
+     */
+    public String read(int fileDescriptor) throws IOException {
+        long start = System.nanoTime();
+        try {
+            OpenFile openFile = openFileFor(fileDescriptor, "read", false);
 
-        // Step 2: Read the free block list
-        byte[] freeBlockList = diskDevice.readFreeBlockList();
-        int[] allocatedBlocks = new int[numBlocksNeeded];
-        int foundBlocks = 0;
+            Lock iNodeLock = iNodeLocks.forINode(openFile.getINodeNumber()).readLock();
+            iNodeLock.lock();
+            try {
+                // Retrieve inode
+                // Retrieves the file's inode from the open file entry, which holds the size and block pointers
+                INode inode = openFile.getINode();
 
-        // Step 3: Find free blocks
-        for (int i = 0; foundBlocks < numBlocksNeeded && i < Disk.NUM_BLOCKS; i++) {
-            int byteIndex = i / 8;
-            int bitIndex = i % 8;
+                // Read Data Blocks
+                // Copies exactly size bytes out of the file's blocks into one array, so the
+                // contents are assembled once and whitespace inside the file is kept
+                byte[] fileData = new byte[Math.max(0, inode.getSize())];
+                readAt(inode, 0, fileData, 0, fileData.length);
 
-            if ((freeBlockList[byteIndex] & (1 << bitIndex)) == 0) { // Block is free
-                freeBlockList[byteIndex] |= (1 << bitIndex); // Mark as allocated
-                allocatedBlocks[foundBlocks++] = i;
+                // Return File Content
+                return new String(fileData);
+            } finally {
+                iNodeLock.unlock();
             }
+        } finally {
+            metrics.record(FileSystemMetrics.Operation.READ, start);
         }
+    }
+
+    /***
+     * Reads up to <code>length</code> bytes from the descriptor's current
+     * position and advances the position past them
+     *
+     * @param fileDescriptor The descriptor of the file to read
+     * @param buffer Array receiving the bytes
+     * @param offset Position in <code>buffer</code> of the first byte
+     * @param length Maximum number of bytes to read
+     * @return The number of bytes read, or -1 at the end of the file
+     * @throws IOException If the descriptor is not open for reading
+     */
+    public int read(int fileDescriptor, byte[] buffer, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        try {
+            OpenFile openFile = openFileFor(fileDescriptor, "read", false);
 
-        // Step 4: Handle insufficient blocks
-        if (foundBlocks < numBlocksNeeded) {
-            throw new IOException("Not enough free blocks available.");
+            Lock iNodeLock = iNodeLocks.forINode(openFile.getINodeNumber()).readLock();
+            iNodeLock.lock();
+            try {
+                long position = openFile.getPosition();
+                boolean readAheadHit = probeReadAhead(openFile, position, length);
+                int bytesRead = readAt(openFile.getINode(), position, buffer, offset, length);
+                if (bytesRead > 0) {
+                    openFile.setPosition(position + bytesRead);
+                    readAhead(openFile, position, bytesRead, readAheadHit);
+                }
+                return bytesRead;
+            } finally {
+                iNodeLock.unlock();
+            }
+        } finally {
+            metrics.record(FileSystemMetrics.Operation.READ, start);
         }
+    }
 
-        // Step 5: Write updated free block list
-        diskDevice.writeFreeBlockList(freeBlockList);
+    /***
+     * Reads up to <code>length</code> bytes starting at <code>position</code>
+     * in the file.  The descriptor's position is not changed.
+     *
+     * @param fileDescriptor The descriptor of the file to read
+     * @param position Offset in the file of the first byte to read
+     * @param buffer Array receiving the bytes
+     * @param offset Position in <code>buffer</code> of the first byte
+     * @param length Maximum number of bytes to read
+     * @return The number of bytes read, or -1 if <code>position</code> is at
+     *         or past the end of the file
+     * @throws IOException If the descriptor is not open for reading
+     */
+    public int pread(int fileDescriptor, long position, byte[] buffer, int offset, int length)
+            throws IOException {
+        long start = System.nanoTime();
+        try {
+            OpenFile openFile = openFileFor(fileDescriptor, "pread", false);
+            checkPosition("pread", position);
 
-        // Step 6: Update the inode
-        INode inode = diskDevice.readInode(iNodeNumber);
-        for (int i = 0; i < numBlocksNeeded; i++) {
-            inode.setBlockPointer(i, allocatedBlocks[i]);
+            Lock iNodeLock = iNodeLocks.forINode(openFile.getINodeNumber()).readLock();
+            iNodeLock.lock();
+            try {
+                return readAt(openFile.getINode(), position, buffer, offset, length);
+            } finally {
+                iNodeLock.unlock();
+            }
+        } finally {
+            metrics.record(FileSystemMetrics.Operation.READ, start);
         }
-        inode.setSize(numBytes);
-        diskDevice.writeInode(inode, iNodeNumber);
-
-        // Step 7: Return allocated block numbers
-        return allocatedBlocks;
     }
 
     /**
-     * Deallocates the blocks used by a file.
-     * @param iNodeNumber The inode number of the file whose blocks are to be deallocated.
+     * Writes data to the file specified by the file descriptor, starting at
+     * the descriptor's position.
+     * @param fileDescriptor The descriptor of the file to write to.
+     * @param data The string data to be written.
+     * @return The number of bytes written.
+     * @throws IOException If there are issues writing to the file.
      */
+    public int write(int fileDescriptor, String data) throws IOException {
+        long start = System.nanoTime();
+        try {
+            OpenFile openFile = openFiles.get(fileDescriptor);
+            if (openFile == null) {
+                throw new IOException("Filesystem:write: file descriptor," + fileDescriptor +
+                        " does not match file descriptor to open file");
+            }
+            if (!openFile.getMode().canWrite()) {
+                throw new IOException("Filesystem:write: file descriptor," + fileDescriptor +
+                        " is not open for writing");
+            }
+            Lock iNodeLock = iNodeLocks.forINode(openFile.getINodeNumber()).writeLock();
+            iNodeLock.lock();
+            try {
+                // Convert data to bytes
+                byte[] dataBytes = data.getBytes();
 
+                // Write the bytes at the descriptor's position.  Blocks are
+                // allocated as the file grows and only the blocks the bytes
+                // land in are written, so repeated writes append to the file
+                long position = openFile.getPosition();
+                int bytesWritten = writeAt(openFile.getINodeNumber(), openFile.getINode(),
+                        position, dataBytes, 0, dataBytes.length);
+                openFile.setPosition(position + bytesWritten);
 
-    /*
-     * Loops through all the blocks connected to the Inode
-     * deallocates each block then it severs the connection
-     * between the Inode and the block. Then it writes the
-     * updated information to the disk.
+                return bytesWritten;
+            } finally {
+                iNodeLock.unlock();
+            }
+        } finally {
+            metrics.record(FileSystemMetrics.Operation.WRITE, start);
+        }
+    }
+
+    /***
+     * Writes <code>length</code> bytes at the descriptor's current position
+     * and advances the position past them, growing the file if needed
+     *
+     * @param fileDescriptor The descriptor of the file to write
+     * @param buffer Array holding the bytes
+     * @param offset Position in <code>buffer</code> of the first byte
+     * @param length Number of bytes to write
+     * @return The number of bytes written
+     * @throws IOException If the descriptor is not open for writing or the
+     *                     file would grow too large
      */
+    public int write(int fileDescriptor, byte[] buffer, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        try {
+            OpenFile openFile = openFileFor(fileDescriptor, "write", true);
 
-    private void deallocateBlocksForFile(int iNodeNumber) throws IOException {
-        INode inode = diskDevice.readInode(iNodeNumber);
+            Lock iNodeLock = iNodeLocks.forINode(openFile.getINodeNumber()).writeLock();
+            iNodeLock.lock();
+            try {
+                int bytesWritten = writeAt(openFile.getINodeNumber(), openFile.getINode(),
+                        openFile.getPosition(), buffer, offset, length);
+                openFile.setPosition(openFile.getPosition() + bytesWritten);
+                return bytesWritten;
+            } finally {
+                iNodeLock.unlock();
+            }
+        } finally {
+            metrics.record(FileSystemMetrics.Operation.WRITE, start);
+        }
+    }
 
-        freeBlockList.setFreeBlockList(diskDevice.readFreeBlockList());
+    /***
+     * Writes <code>length</code> bytes starting at <code>position</code> in the
+     * file.  The descriptor's position is not changed.  Writing past the end
+     * of the file grows it; any gap reads back as zeros.
+     *
+     * @param fileDescriptor The descriptor of the file to write
+     * @param position Offset in the file of the first byte to write
+     * @param buffer Array holding the bytes
+     * @param offset Position in <code>buffer</code> of the first byte
+     * @param length Number of bytes to write
+     * @return The number of bytes written
+     * @throws IOException If the descriptor is not open for writing or the
+     *                     file would grow too large
+     */
+    public int pwrite(int fileDescriptor, long position, byte[] buffer, int offset, int length)
+            throws IOException {
+        long start = System.nanoTime();
+        try {
+            OpenFile openFile = openFileFor(fileDescriptor, "pwrite", true);
+            checkPosition("pwrite", position);
 
-        for (int i = 0; i < INode.NUM_BLOCK_POINTERS; i++) {
-            int blockNumber = inode.getBlockPointer(i);
-            if (blockNumber == -1) break;
+            Lock iNodeLock = iNodeLocks.forINode(openFile.getINodeNumber()).writeLock();
+            iNodeLock.lock();
+            try {
+                return writeAt(openFile.getINodeNumber(), openFile.getINode(), position, buffer, offset, length);
+            } finally {
+                iNodeLock.unlock();
+            }
+        } finally {
+            metrics.record(FileSystemMetrics.Operation.WRITE, start);
+        }
+    }
 
-            freeBlockList.deallocateBlock(blockNumber);
-            inode.setBlockPointer(i, -1);
+    /***
+     * Sets the size of the file open on <code>fileDescriptor</code>.  Blocks
+     * past the new end are returned to the free block list and the rest of
+     * the last block is zeroed.  Growing a file leaves a gap that reads as
+     * zeros and has no blocks until it is written.  The descriptor's
+     * position is not changed.  The new size and the freed blocks are
+     * committed before returning, so a freed block cannot be handed to
+     * another file while the inode on the disk still points to it.
+     *
+     * @param fileDescriptor The descriptor of the file
+     * @param size The new size of the file in bytes
+     * @throws IOException If the descriptor is not open for writing or the
+     *                     size is negative or too large
+     */
+    public void truncate(int fileDescriptor, long size) throws IOException {
+        OpenFile openFile = openFileFor(fileDescriptor, "truncate", true);
+        checkPosition("truncate", size);
+        if (size > maxFileSize()) {
+            throw new IOException("File size exceeds maximum supported size.");
         }
 
-        diskDevice.writeFreeBlockList(freeBlockList.getFreeBlockList());
-        inode.setSize(-1);
-        diskDevice.writeInode(inode, iNodeNumber);
+        int iNodeNumber = openFile.getINodeNumber();
+        Lock iNodeLock = iNodeLocks.forINode(iNodeNumber).writeLock();
+        Lock metadata = metadataLock.readLock();
+        iNodeLock.lock();
+        metadata.lock();
+        try {
+            INode inode = openFile.getINode();
+
+            if (inode.hasInlineData()) {
+                if (size > INode.INLINE_DATA_SIZE) {
+                    moveInlineData(inode);
+                } else if (size < Math.max(0, inode.getSize())) {
+                    Arrays.fill(inode.getInlineData(), (int) size, INode.INLINE_DATA_SIZE, (byte) 0);
+                }
+            } else if (size < Math.max(0, inode.getSize())) {
+                int keptBlocks = (int) ((size + blockSize - 1) / blockSize);
+                deallocateBlocksFrom(iNodeNumber, keptBlocks);
+
+                // bytes past the end must read as zeros if the file grows again
+                int tailOffset = (int) (size % blockSize);
+                int lastBlock = keptBlocks > 0 ? blockFor(inode, keptBlocks - 1) : -1;
+                if (tailOffset > 0 && lastBlock >= 0) {
+                    blockCache.writeBlock(lastBlock, tailOffset, zeroBlock, 0, blockSize - tailOffset);
+                }
+            }
+
+            inode.setSize((int) size);
+            iNodeCache.markDirty(iNodeNumber);
+        } finally {
+            metadata.unlock();
+            iNodeLock.unlock();
+        }
+
+        commitMetadata();
+    }
+
+    /***
+     * Moves the descriptor's position to <code>position</code>.  The position
+     * may be past the end of the file.
+     *
+     * @param fileDescriptor The descriptor of the file
+     * @param position New offset in the file
+     * @return The new position
+     * @throws IOException If the descriptor is not open or the position is negative
+     */
+    public long seek(int fileDescriptor, long position) throws IOException {
+        OpenFile openFile = openFileFor(fileDescriptor, "seek", false, false);
+        checkPosition("seek", position);
+        openFile.setPosition(position);
+        return position;
+    }
+
+    /***
+     * Returns the descriptor's current position
+     *
+     * @param fileDescriptor The descriptor of the file
+     * @return The offset in the file of the next byte read or written
+     * @throws IOException If the descriptor is not open
+     */
+    public long getPosition(int fileDescriptor) throws IOException {
+        return openFileFor(fileDescriptor, "getPosition", false, false).getPosition();
+    }
+
+    /***
+     * Returns the size of the file open on <code>fileDescriptor</code>
+     *
+     * @param fileDescriptor The descriptor of the file
+     * @return The size of the file in bytes
+     * @throws IOException If the descriptor is not open
+     */
+    public long getFileSize(int fileDescriptor) throws IOException {
+        OpenFile openFile = openFileFor(fileDescriptor, "getFileSize", false, false);
+
+        Lock iNodeLock = iNodeLocks.forINode(openFile.getINodeNumber()).readLock();
+        iNodeLock.lock();
+        try {
+            return Math.max(0, openFile.getINode().getSize());
+        } finally {
+            iNodeLock.unlock();
+        }
+    }
+
+    /***
+     * Returns a stream reading the file from the descriptor's position.
+     * Closing the stream closes the descriptor.
+     *
+     * @param fileDescriptor The descriptor of the file
+     * @return An input stream over the file
+     * @throws IOException If the descriptor is not open for reading
+     */
+    public InputStream getInputStream(int fileDescriptor) throws IOException {
+        openFileFor(fileDescriptor, "getInputStream", false);
+        return new FileSystemInputStream(this, fileDescriptor);
+    }
+
+    /***
+     * Returns a stream writing the file at the descriptor's position.
+     * Closing the stream closes the descriptor.
+     *
+     * @param fileDescriptor The descriptor of the file
+     * @return An output stream over the file
+     * @throws IOException If the descriptor is not open for writing
+     */
+    public OutputStream getOutputStream(int fileDescriptor) throws IOException {
+        openFileFor(fileDescriptor, "getOutputStream", true);
+        return new FileSystemOutputStream(this, fileDescriptor);
+    }
+
+    /***
+     * Returns a seekable channel over the file that shares the descriptor's
+     * position.  Closing the channel closes the descriptor.
+     *
+     * @param fileDescriptor The descriptor of the file
+     * @return A channel over the file
+     * @throws IOException If the descriptor is not open
+     */
+    public SeekableByteChannel getChannel(int fileDescriptor) throws IOException {
+        openFileFor(fileDescriptor, "getChannel", false, false);
+        return new FileSystemChannel(this, fileDescriptor);
+    }
+
+
+
+/**
+ * Allocates the blocks a write to a file is missing.
+ * @param iNodeNumber The inode number for the file.
+ * @param position Offset in the file of the first byte to be written.
+ * @param numBytes The number of bytes to be written.
+ * @return An array of the newly allocated block numbers.
+ * @throws IOException If there are no enough free blocks available.
+ */
+
+    /**
+     * Only logical blocks of the range without a block are allocated, so a
+     * file grows one block at a time as it is appended to.  The new blocks
+     * are taken right after the file's previous block when those are free,
+     * which keeps a growing file in one extent.
+     */
+    private int[] allocateBlocksForFile(int iNodeNumber, long position, int numBytes) throws IOException {
+        // Step 1: Calculate the logical blocks covered by the write
+        long end = position + numBytes;
+        if (end > maxFileSize()) {
+            throw new IOException("File size exceeds maximum supported size.");
+        }
+        int firstBlock = (int) (position / blockSize);
+        int lastBlock = (int) ((end - 1) / blockSize);
+
+        INode inode = iNodeCache.get(iNodeNumber);
+        int numDataBlocks = 0;
+        for (int i = firstBlock; i <= lastBlock; i++) {
+            if (blockFor(inode, i) < 0) {
+                numDataBlocks++;
+            }
+        }
+        if (numDataBlocks == 0) {
+            return new int[0];
+        }
+        int numBlocksNeeded = numDataBlocks + pointerBlocksNeeded(inode, firstBlock, lastBlock);
+
+        // Step 2: Take the blocks from the in-memory free block list, after
+        //         the block preceding the first missing one if possible
+        int previousBlock = -1;
+        for (int i = firstBlock - 1; i >= 0 && previousBlock < 0; i--) {
+            previousBlock = blockFor(inode, i);
+        }
+        int[] allocatedBlocks = allocateBlocks(numBlocksNeeded, previousBlock);
+
+        // Step 3: Update the cached inode and its indirect blocks.  New
+        //         blocks the write only covers part of are zeroed so the rest
+        //         of them reads as zeros
+        PrimitiveIterator.OfInt newBlocks = Arrays.stream(allocatedBlocks).iterator();
+        for (int i = firstBlock; i <= lastBlock; i++) {
+            if (blockFor(inode, i) < 0) {
+                setBlockFor(inode, i, newBlocks);
+                int blockNumber = blockFor(inode, i);
+
+                long blockStart = (long) i * blockSize;
+                if (blockStart < position || blockStart + blockSize > end) {
+                    blockCache.writeBlock(zeroBlock, blockNumber);
+                }
+            }
+        }
+        iNodeCache.markDirty(iNodeNumber);
+
+        // Step 4: Return allocated block numbers
+        return allocatedBlocks;
+    }
+
+    /**
+     * Deallocates the blocks used by a file.
+     * @param iNodeNumber The inode number of the file whose blocks are to be deallocated.
+     */
+
+
+    /*
+     * Releases every block of the file, then marks the inode empty.  The
+     * updated information is written to the disk when the inode is flushed.
+     */
+
+    private void deallocateBlocksForFile(int iNodeNumber) throws IOException {
+        deallocateBlocksFrom(iNodeNumber, 0);
+
+        INode inode = iNodeCache.get(iNodeNumber);
+        inode.setSize(-1);
+        inode.setInlineData(null);
+        iNodeCache.markDirty(iNodeNumber);
+    }
+
+    /**
+     * Releases the blocks of the file from logical block <code>firstBlock</code>
+     * on and clears their pointers.  Holes are skipped, so blocks written past
+     * a gap are freed too.
+     */
+    private void deallocateBlocksFrom(int iNodeNumber, int firstBlock) throws IOException {
+        INode inode = iNodeCache.get(iNodeNumber);
+
+        for (int i = firstBlock; i < INode.NUM_BLOCK_POINTERS; i++) {
+            int blockNumber = inode.getBlockPointer(i);
+            if (blockNumber == -1) continue;
+
+            releaseBlock(blockNumber);
+            inode.setBlockPointer(i, -1);
+        }
+
+        int singleStart = INode.NUM_BLOCK_POINTERS;
+        if (inode.getSingleIndirectPointer() >= 0 &&
+                releasePointers(inode.getSingleIndirectPointer(), firstBlock - singleStart, 1)) {
+            inode.setSingleIndirectPointer(-1);
+        }
+
+        int doubleStart = singleStart + pointersPerBlock;
+        if (inode.getDoubleIndirectPointer() >= 0 &&
+                releasePointers(inode.getDoubleIndirectPointer(), firstBlock - doubleStart, 2)) {
+            inode.setDoubleIndirectPointer(-1);
+        }
+
+        iNodeCache.markDirty(iNodeNumber);
+    }
+
+    /**
+     * Releases the blocks reached through pointer block <code>pointerBlock</code>
+     * from entry <code>firstIndex</code> on, counted in data blocks.  With
+     * <code>depth</code> 2 the entries are themselves pointer blocks.
+     *
+     * @return true if nothing before <code>firstIndex</code> is kept, in
+     *         which case the pointer block itself has been released
+     */
+    private boolean releasePointers(int pointerBlock, int firstIndex, int depth) throws IOException {
+        int span = depth == 1 ? 1 : pointersPerBlock;
+        int[] pointers = indirectBlocks.get(pointerBlock);
+
+        for (int i = Math.max(0, firstIndex / span); i < pointersPerBlock; i++) {
+            if (pointers[i] < 0) continue;
+
+            boolean released;
+            if (depth == 1) {
+                releaseBlock(pointers[i]);
+                released = true;
+            } else {
+                released = releasePointers(pointers[i], firstIndex - i * span, 1);
+            }
+            if (released) {
+                indirectBlocks.set(pointerBlock, i, -1);
+            }
+        }
+
+        if (firstIndex <= 0) {
+            indirectBlocks.invalidate(pointerBlock);
+            blockCache.invalidate(pointerBlock);
+            // its old pointers may still be written there by a pending commit or a replay
+            freeBlockList.holdBlock(pointerBlock);
+            return true;
+        }
+        return false;
+    }
+
+    private void releaseBlock(int blockNumber) {
+        // drop the cached copy before the block can be handed out again
+        blockCache.invalidate(blockNumber);
+        freeBlockList.deallocateBlock(blockNumber);
+    }
+
+    /***
+     * Selects how blocks are chosen for files written from now on
+     *
+     * @param policy The allocation policy to use
+     */
+    public void setAllocationPolicy(AllocationPolicy policy) {
+        this.allocationPolicy = policy;
+    }
+
+    public AllocationPolicy getAllocationPolicy() {
+        return allocationPolicy;
+    }
+
+    /***
+     * Reports how many extents the blocks of <code>fileName</code> form
+     *
+     * @param fileName Name of the file
+     * @return The layout of the file
+     * @throws IOException If the file does not exist
+     */
+    public FragmentationReport.FileEntry getFragmentation(String fileName) throws IOException {
+        Lock namespace = namespaceLock.readLock();
+        namespace.lock();
+        try {
+            int iNodeNum = fileNameIndex.lookup(fileName);
+
+            if (iNodeNum < 0) {
+                throw new IOException("FileSystem::getFragmentation: file not found");
+            }
+            return fragmentationOf(fileName.trim(), iNodeNum);
+        } finally {
+            namespace.unlock();
+        }
+    }
+
+    /***
+     * Reports the layout of every file and of the free space on the disk
+     *
+     * @return The fragmentation report for the whole disk
+     * @throws IOException If an inode cannot be read
+     */
+    public FragmentationReport getFragmentationReport() throws IOException {
+        FragmentationReport report = new FragmentationReport();
+
+        Lock namespace = namespaceLock.readLock();
+        namespace.lock();
+        try {
+            for (Map.Entry<String, Integer> entry : fileNameIndex.entries().entrySet()) {
+                report.addFile(fragmentationOf(entry.getKey(), entry.getValue()));
+            }
+        } finally {
+            namespace.unlock();
+        }
+
+        int start = freeBlockList.nextFreeBlock(0);
+        while (start >= 0) {
+            int end = freeBlockList.nextAllocatedBlock(start);
+            report.addFreeExtent(end - start);
+            start = freeBlockList.nextFreeBlock(end);
+        }
+        return report;
+    }
+
+    /**
+     * Counts the runs of consecutive block numbers among the file's blocks,
+     * indirect blocks included, in the order they are reached
+     */
+    private FragmentationReport.FileEntry fragmentationOf(String fileName, int iNodeNumber)
+            throws IOException {
+        int[] blockNumbers;
+
+        Lock iNodeLock = iNodeLocks.forINode(iNodeNumber).readLock();
+        iNodeLock.lock();
+        try {
+            blockNumbers = blocksOf(iNodeCache.get(iNodeNumber));
+        } finally {
+            iNodeLock.unlock();
+        }
+
+        int blocks = 0;
+        int extents = 0;
+        int previous = -1;
+
+        for (int blockNumber : blockNumbers) {
+            if (blocks == 0 || blockNumber != previous + 1) {
+                extents++;
+            }
+            blocks++;
+            previous = blockNumber;
+        }
+        return new FragmentationReport.FileEntry(fileName, blocks, extents);
+    }
+
+    /**
+     * Returns the open file for <code>fileDescriptor</code>, checking that it
+     * allows reading or, if <code>forWriting</code>, writing
+     */
+    private OpenFile openFileFor(int fileDescriptor, String operation, boolean forWriting)
+            throws IOException {
+        return openFileFor(fileDescriptor, operation, !forWriting, forWriting);
+    }
+
+    private OpenFile openFileFor(int fileDescriptor, String operation,
+                                 boolean needsRead, boolean needsWrite) throws IOException {
+        OpenFile openFile = openFiles.get(fileDescriptor);
+
+        if (openFile == null) {
+            throw new IOException("Filesystem:" + operation + ": file descriptor," +
+                    fileDescriptor + " not found");
+        }
+        if (needsRead && !openFile.getMode().canRead()) {
+            throw new IOException("Filesystem:" + operation + ": file descriptor," +
+                    fileDescriptor + " is not open for reading");
+        }
+        if (needsWrite && !openFile.getMode().canWrite()) {
+            throw new IOException("Filesystem:" + operation + ": file descriptor," +
+                    fileDescriptor + " is not open for writing");
+        }
+        return openFile;
+    }
+
+    private static void checkPosition(String operation, long position) throws IOException {
+        if (position < 0) {
+            throw new IOException("Filesystem:" + operation + ": negative position " + position);
+        }
+    }
+
+    /**
+     * Largest file the block pointers of an inode can describe
+     */
+    private long maxFileSize() {
+        return diskDevice.getGeometry().getMaxFileSize();
+    }
+
+    /**
+     * Returns the data block holding logical block <code>logicalBlock</code>
+     * of the file, or -1 if that part of the file has no block.  Blocks past
+     * the direct pointers are found through the single-indirect block and
+     * then through the double-indirect block, whose decoded pointers are
+     * kept in <code>indirectBlocks</code>.
+     */
+    private int blockFor(INode inode, int logicalBlock) throws IOException {
+        if (logicalBlock < INode.NUM_BLOCK_POINTERS) {
+            return inode.getBlockPointer(logicalBlock);
+        }
+
+        int index = logicalBlock - INode.NUM_BLOCK_POINTERS;
+        if (index < pointersPerBlock) {
+            int single = inode.getSingleIndirectPointer();
+            return single < 0 ? -1 : indirectBlocks.get(single)[index];
+        }
+
+        index -= pointersPerBlock;
+        if (index >= pointersPerBlock * pointersPerBlock) {
+            return -1;
+        }
+        int doubleIndirect = inode.getDoubleIndirectPointer();
+        if (doubleIndirect < 0) {
+            return -1;
+        }
+        int pointerBlock = indirectBlocks.get(doubleIndirect)[index / pointersPerBlock];
+        return pointerBlock < 0 ? -1 : indirectBlocks.get(pointerBlock)[index % pointersPerBlock];
+    }
+
+    /**
+     * Returns the data blocks holding <code>count</code> logical blocks of
+     * the file from <code>firstBlock</code> on, -1 for each hole
+     */
+    private int[] blocksFor(INode inode, int firstBlock, int count) throws IOException {
+        int[] blockNumbers = new int[count];
+        for (int i = 0; i < count; i++) {
+            blockNumbers[i] = blockFor(inode, firstBlock + i);
+        }
+        return blockNumbers;
+    }
+
+    /**
+     * Maps logical block <code>logicalBlock</code> of the file to the next
+     * block of <code>newBlocks</code>.  Indirect blocks the mapping needs and
+     * does not have yet are taken from <code>newBlocks</code> first, so they
+     * sit just before the data they point to.  The caller holds the inode's
+     * write lock.
+     */
+    private void setBlockFor(INode inode, int logicalBlock, PrimitiveIterator.OfInt newBlocks)
+            throws IOException {
+        if (logicalBlock < INode.NUM_BLOCK_POINTERS) {
+            inode.setBlockPointer(logicalBlock, newBlocks.nextInt());
+            return;
+        }
+
+        int index = logicalBlock - INode.NUM_BLOCK_POINTERS;
+        if (index < pointersPerBlock) {
+            if (inode.getSingleIndirectPointer() < 0) {
+                inode.setSingleIndirectPointer(newPointerBlock(newBlocks));
+            }
+            indirectBlocks.set(inode.getSingleIndirectPointer(), index, newBlocks.nextInt());
+            return;
+        }
+
+        index -= pointersPerBlock;
+        if (inode.getDoubleIndirectPointer() < 0) {
+            inode.setDoubleIndirectPointer(newPointerBlock(newBlocks));
+        }
+        int doubleIndirect = inode.getDoubleIndirectPointer();
+        int pointerBlock = indirectBlocks.get(doubleIndirect)[index / pointersPerBlock];
+        if (pointerBlock < 0) {
+            pointerBlock = newPointerBlock(newBlocks);
+            indirectBlocks.set(doubleIndirect, index / pointersPerBlock, pointerBlock);
+        }
+        indirectBlocks.set(pointerBlock, index % pointersPerBlock, newBlocks.nextInt());
+    }
+
+    private int newPointerBlock(PrimitiveIterator.OfInt newBlocks) throws IOException {
+        int pointerBlock = newBlocks.nextInt();
+        indirectBlocks.initialize(pointerBlock);
+        return pointerBlock;
+    }
+
+    /**
+     * Counts the indirect blocks that mapping the missing logical blocks
+     * from <code>firstBlock</code> to <code>lastBlock</code> would add
+     */
+    private int pointerBlocksNeeded(INode inode, int firstBlock, int lastBlock) throws IOException {
+        int needed = 0;
+        int singleEnd = INode.NUM_BLOCK_POINTERS + pointersPerBlock;
+
+        if (inode.getSingleIndirectPointer() < 0 && lastBlock >= INode.NUM_BLOCK_POINTERS &&
+                firstBlock < singleEnd) {
+            needed++;
+        }
+
+        if (lastBlock >= singleEnd) {
+            int[] pointerBlocks = inode.getDoubleIndirectPointer() < 0
+                    ? null
+                    : indirectBlocks.get(inode.getDoubleIndirectPointer());
+            if (pointerBlocks == null) {
+                needed++;
+            }
+
+            int firstGroup = Math.max(0, firstBlock - singleEnd) / pointersPerBlock;
+            int lastGroup = (lastBlock - singleEnd) / pointersPerBlock;
+            for (int group = firstGroup; group <= lastGroup; group++) {
+                if (pointerBlocks == null || pointerBlocks[group] < 0) {
+                    needed++;
+                }
+            }
+        }
+        return needed;
+    }
+
+    /**
+     * Returns every block the file owns in the order they are reached:  the
+     * direct blocks, then each indirect block followed by the blocks it
+     * points to.  Holes are left out.
+     */
+    private int[] blocksOf(INode inode) throws IOException {
+        IntStream.Builder blocks = IntStream.builder();
+
+        for (int i = 0; i < INode.NUM_BLOCK_POINTERS; i++) {
+            addIfPresent(blocks, inode.getBlockPointer(i));
+        }
+
+        int single = inode.getSingleIndirectPointer();
+        if (single >= 0) {
+            blocks.add(single);
+            for (int blockNumber : indirectBlocks.get(single)) {
+                addIfPresent(blocks, blockNumber);
+            }
+        }
+
+        int doubleIndirect = inode.getDoubleIndirectPointer();
+        if (doubleIndirect >= 0) {
+            blocks.add(doubleIndirect);
+            for (int pointerBlock : indirectBlocks.get(doubleIndirect)) {
+                if (pointerBlock < 0) continue;
+
+                blocks.add(pointerBlock);
+                for (int blockNumber : indirectBlocks.get(pointerBlock)) {
+                    addIfPresent(blocks, blockNumber);
+                }
+            }
+        }
+        return blocks.build().toArray();
+    }
+
+    private static void addIfPresent(IntStream.Builder blocks, int blockNumber) {
+        if (blockNumber >= 0) {
+            blocks.add(blockNumber);
+        }
+    }
+
+    /**
+     * Copies bytes of the file starting at <code>position</code> into
+     * <code>buffer</code> through the cache, or straight from the inode if
+     * the file is stored inline.  Runs of whole blocks are read with one call
+     * so consecutive blocks missing from the cache take a single disk
+     * transfer.  Parts of the file without a block read as zeros.  The
+     * caller holds the inode lock.
+     *
+     * @return The number of bytes copied, or -1 at the end of the file
+     */
+    private int readAt(INode inode, long position, byte[] buffer, int offset, int length)
+            throws IOException {
+        Objects.checkFromIndexSize(offset, length, buffer.length);
+
+        long fileSize = Math.max(0, inode.getSize());
+        if (length == 0) {
+            return 0;
+        }
+        if (position >= fileSize) {
+            return -1;
+        }
+
+        int total = (int) Math.min(length, fileSize - position);
+        if (inode.hasInlineData()) {
+            System.arraycopy(inode.getInlineData(), (int) position, buffer, offset, total);
+            return total;
+        }
+        int done = 0;
+
+        while (done < total) {
+            long filePosition = position + done;
+            int logicalBlock = (int) (filePosition / blockSize);
+            int blockOffset = (int) (filePosition % blockSize);
+            int chunk = Math.min(blockSize - blockOffset, total - done);
+
+            if (blockOffset == 0 && total - done >= 2 * blockSize) {
+                int[] blockNumbers = blocksFor(inode, logicalBlock, (total - done) / blockSize);
+                for (int i = 0; i < blockNumbers.length; i++) {
+                    if (blockNumbers[i] < 0) {
+                        int holeStart = offset + done + i * blockSize;
+                        Arrays.fill(buffer, holeStart, holeStart + blockSize, (byte) 0);
+                    }
+                }
+                blockCache.readBlocks(blockNumbers, buffer, offset + done);
+                done += blockNumbers.length * blockSize;
+                continue;
+            }
+
+            int blockNumber = blockFor(inode, logicalBlock);
+            if (blockNumber < 0) {
+                Arrays.fill(buffer, offset + done, offset + done + chunk, (byte) 0);
+            } else {
+                blockCache.readBlock(blockNumber, blockOffset, buffer, offset + done, chunk);
+            }
+            done += chunk;
+        }
+        return total;
+    }
+
+    /**
+     * Copies <code>length</code> bytes of <code>buffer</code> into the file at
+     * <code>position</code>.  Only the blocks covering the range are read or
+     * written, so appending to a file costs one block write per block the
+     * new bytes land in, and runs of whole blocks are written with one call
+     * so consecutive blocks take a single disk transfer.  A file that has
+     * no data block and stays within <code>INode.INLINE_DATA_SIZE</code>
+     * bytes is kept in the inode instead, and moved to a block when a write
+     * grows it past that.  The caller holds the inode's write lock; the
+     * metadata lock is held here.
+     *
+     * @return The number of bytes written
+     */
+    private int writeAt(int iNodeNumber, INode inode, long position, byte[] buffer, int offset, int length)
+            throws IOException {
+        Objects.checkFromIndexSize(offset, length, buffer.length);
+
+        if (length == 0) {
+            return 0;
+        }
+
+        long end = position + length;
+        if (end > maxFileSize()) {
+            throw new IOException("File size exceeds maximum supported size.");
+        }
+
+        Lock metadata = metadataLock.readLock();
+        metadata.lock();
+        try {
+            if (end <= INode.INLINE_DATA_SIZE && canStoreInline(inode)) {
+                if (!inode.hasInlineData()) {
+                    inode.setInlineData(new byte[INode.INLINE_DATA_SIZE]);
+                }
+                System.arraycopy(buffer, offset, inode.getInlineData(), (int) position, length);
+                if (end > inode.getSize()) {
+                    inode.setSize((int) end);
+                }
+                iNodeCache.markDirty(iNodeNumber);
+                return length;
+            }
+            if (inode.hasInlineData()) {
+                moveInlineData(inode);
+            }
+
+            // Allocate the blocks of the range the file does not have yet
+            allocateBlocksForFile(iNodeNumber, position, length);
+
+            int done = 0;
+            while (done < length) {
+                long filePosition = position + done;
+                int logicalBlock = (int) (filePosition / blockSize);
+                int blockOffset = (int) (filePosition % blockSize);
+                int chunk = Math.min(blockSize - blockOffset, length - done);
+
+                if (blockOffset == 0 && length - done >= 2 * blockSize) {
+                    int[] blockNumbers = blocksFor(inode, logicalBlock, (length - done) / blockSize);
+                    blockCache.writeBlocks(blockNumbers, buffer, offset + done);
+                    done += blockNumbers.length * blockSize;
+                    continue;
+                }
+
+                blockCache.writeBlock(blockFor(inode, logicalBlock), blockOffset, buffer, offset + done, chunk);
+                done += chunk;
+            }
+
+            if (end > inode.getSize()) {
+                inode.setSize((int) end);
+            }
+            iNodeCache.markDirty(iNodeNumber);
+        } finally {
+            metadata.unlock();
+        }
+
+        return length;
+    }
+
+    /**
+     * Returns whether the bytes of the file can be kept in its inode:  it
+     * already is, or it is a file without a data block, which for a file
+     * no longer than <code>INode.INLINE_DATA_SIZE</code> bytes means it has
+     * no block 0
+     */
+    private static boolean canStoreInline(INode inode) {
+        return inode.hasInlineData() ||
+                (!inode.isDirectory() && inode.getSize() <= INode.INLINE_DATA_SIZE &&
+                        inode.getBlockPointer(0) < 0);
+    }
+
+    /**
+     * Moves the inline bytes of the file to a newly allocated block 0.  The
+     * caller holds the inode's write lock and the metadata lock, and marks
+     * the inode dirty.
+     */
+    private void moveInlineData(INode inode) throws IOException {
+        byte[] inlineData = inode.getInlineData();
+        int size = Math.max(0, inode.getSize());
+        if (size > 0) {
+            int blockNumber = allocateBlocks(1, -1)[0];
+            blockCache.writeBlock(zeroBlock, blockNumber);
+            blockCache.writeBlock(blockNumber, 0, inlineData, 0, size);
+            inode.setBlockPointer(0, blockNumber);
+        }
+        inode.setInlineData(null);
+    }
+
+    /**
+     * Takes <code>count</code> blocks from the free block list; the updated
+     * list reaches the disk with the next commit.  Free blocks directly after
+     * <code>previousBlock</code> are taken first; the rest are chosen by the
+     * current allocation policy.
+     *
+     * @param previousBlock Block the new ones should follow, or -1 for none
+     */
+    private int[] allocateBlocks(int count, int previousBlock) throws IOException {
+        int[] run = previousBlock >= 0
+                ? freeBlockList.allocateRun(previousBlock + 1, count)
+                : new int[0];
+        int remaining = count - run.length;
+        int[] rest;
+
+        try {
+            if (allocationPolicy == AllocationPolicy.BEST_FIT_EXTENT) {
+                rest = freeBlockList.allocateContiguous(remaining);
+            } else {
+                rest = freeBlockList.allocate(remaining);
+            }
+        } catch (IllegalStateException e) {
+            for (int block : run) {
+                freeBlockList.deallocateBlock(block);
+            }
+            throw new IOException("Not enough free blocks available.", e);
+        }
+
+        int[] allocatedBlocks = Arrays.copyOf(run, count);
+        System.arraycopy(rest, 0, allocatedBlocks, run.length, remaining);
+        return allocatedBlocks;
+    }
+
+    /**
+     * Releases the blocks of inode <code>iNodeNumber</code> and marks the
+     * inode unused, once no name and no open descriptor refer to it.  The
+     * caller holds the name space write lock and commits afterwards.
+     */
+    private void reclaimINode(int iNodeNumber) throws IOException {
+        Lock iNodeLock = iNodeLocks.forINode(iNodeNumber).writeLock();
+        Lock metadata = metadataLock.readLock();
+        iNodeLock.lock();
+        metadata.lock();
+        try {
+            deallocateBlocksForFile(iNodeNumber);
+            INode inode = iNodeCache.get(iNodeNumber);
+            inode.setFileName(null);
+            inode.setParent(-1);
+            inode.setDirectory(false);
+            iNodeCache.markDirty(iNodeNumber);
+            iNodeBitmap.release(iNodeNumber);
+        } finally {
+            metadata.unlock();
+            iNodeLock.unlock();
+        }
+    }
+
+    /**
+     * Commits the changes of a close, rename, delete or truncate as the
+     * durability mode asks
+     */
+    private void commitMetadata() throws IOException {
+        switch (durabilityMode) {
+            case SYNC_ON_CLOSE:
+                commitMetadata(true, false);
+                break;
+            case GROUP_COMMIT:
+                commitMetadata(true, true);
+                break;
+            default:
+                commitMetadata(false, true);
+                break;
+        }
+    }
+
+    /**
+     * Writes every changed data block to the disk, then commits the changed
+     * metadata as one journal transaction and writes it in place.  Data goes
+     * first so committed metadata never refers to blocks that were not
+     * written; when the commit is forced the data region is forced before
+     * the journal transaction, since forcing the journal alone would let a
+     * crash replay pointers to blocks still only in memory.
+     *
+     * With <code>shared</code> set, a caller whose changes were already
+     * covered by a commit that started after it asked returns at once, as
+     * long as that commit was forced when the caller needs it forced;
+     * otherwise it waits for the running commit and then writes one for
+     * itself and every caller that queued behind it, so they share one
+     * force.  A forced commit following unforced ones forces the whole
+     * disk, so it also covers what they left in memory.  Must not be called
+     * with the metadata lock held.
+     *
+     * @param force Whether the commit must reach the file before returning
+     * @param shared Whether a commit made for another caller may serve
+     * @throws IOException If the disk cannot be written
+     */
+    private void commitMetadata(boolean force, boolean shared) throws IOException {
+        long ticket = commitRequests.incrementAndGet();
+
+        commitLock.lock();
+        try {
+            if (shared && (force ? forcedRequests : committedRequests) >= ticket) {
+                return;
+            }
+            long batch = commitRequests.get();
+            List<Journal.Record> records = new ArrayList<>();
+            int[] heldBlocks;
+
+            Lock metadata = metadataLock.writeLock();
+            metadata.lock();
+            try {
+                blockCache.flush();
+                byte[] freeList = freeBlockList.snapshotIfDirty();
+                if (freeList != null) {
+                    records.add(new Journal.Record(diskDevice.getFreeListOffset(), freeList));
+                }
+                byte[] usedINodes = iNodeBitmap.snapshotIfDirty();
+                if (usedINodes != null && diskDevice.hasInodeBitmap()) {
+                    records.add(new Journal.Record(diskDevice.getInodeBitmapOffset(), usedINodes));
+                }
+                iNodeCache.snapshotDirty(records);
+                indirectBlocks.snapshotDirty(records);
+                // pointer blocks freed before this snapshot are in no later record
+                heldBlocks = freeBlockList.getHeldBlocks();
+            } finally {
+                metadata.unlock();
+            }
+
+            if (force && journal != null) {
+                // the blocks the records point to must be on the disk before the records are
+                if (unforcedCommits) {
+                    diskDevice.sync();
+                } else {
+                    diskDevice.forceData();
+                }
+            }
+            long checkpoints = journal != null ? journal.getCheckpointCount() : 0;
+            if (!records.isEmpty()) {
+                if (journal != null) {
+                    journal.commit(records, force);
+                } else {
+                    Journal.apply(diskDevice, records);
+                }
+                commits++;
+                // cleared below if this commit is forced
+                unforcedCommits = true;
+            }
+            if (force && journal == null && unforcedCommits) {
+                diskDevice.sync();
+            }
+            indirectBlocks.committed();
+            releaseHeldBlocks(heldBlocks, checkpoints);
+            committedRequests = batch;
+            if (force) {
+                unforcedCommits = false;
+                forcedRequests = batch;
+            }
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Hands freed pointer blocks back to the free block list once nothing
+     * can write their old contents any more.  The commits that recorded
+     * them have been written in place, since commits run one at a time, but
+     * the journal may still hold those records until a checkpoint empties
+     * it; one is taken here if too many blocks are waiting.  Called with
+     * the commit lock held.
+     *
+     * @param heldBlocks Blocks held before the snapshot of the running commit
+     * @param checkpoints Journal checkpoint count before the running commit
+     *                    was appended
+     */
+    private void releaseHeldBlocks(int[] heldBlocks, long checkpoints) throws IOException {
+        if (heldBlocks.length == 0) {
+            return;
+        }
+        if (journal != null && journal.getCheckpointCount() == checkpoints) {
+            if (heldBlocks.length < diskDevice.getNumBlocks() / HELD_BLOCKS_DIVISOR) {
+                return;
+            }
+            journal.checkpoint();
+        }
+        freeBlockList.releaseHeldBlocks(heldBlocks);
+    }
+
+    /**
+     * Returns whether the first block of a read at <code>position</code> that
+     * the descriptor has not read before is already cached, which tells the
+     * read-ahead whether its last prefetch arrived in time.  The caller
+     * holds the inode lock.
+     */
+    private boolean probeReadAhead(OpenFile openFile, long position, int length) throws IOException {
+        INode inode = openFile.getINode();
+        long fileSize = Math.max(0, inode.getSize());
+        if (readAheadBlocks == 0 || length <= 0 || position >= fileSize) {
+            return false;
+        }
+
+        long last = (Math.min(position + length, fileSize) - 1) / blockSize;
+        long probe = Math.max(position / blockSize, openFile.getReadAhead().getLastBlock() + 1);
+        if (probe > last) {
+            return true;
+        }
+        int blockNumber = blockFor(inode, (int) probe);
+        return blockNumber < 0 || blockCache.contains(blockNumber);
+    }
+
+    /**
+     * Tells the descriptor's read-ahead about a read of
+     * <code>bytesRead</code> bytes at <code>position</code> and queues the
+     * prefetch it asks for.  The caller holds the inode lock.
+     */
+    private void readAhead(OpenFile openFile, long position, int bytesRead, boolean hit) {
+        int maxBlocks = readAheadBlocks;
+        if (maxBlocks == 0) {
+            return;
+        }
+
+        ReadAhead readAhead = openFile.getReadAhead();
+        int first = (int) (position / blockSize);
+        int last = (int) ((position + bytesRead - 1) / blockSize);
+        if (!readAhead.onRead(first, last, hit, maxBlocks)) {
+            return;
+        }
+
+        long fileBlocks = (Math.max(0, openFile.getINode().getSize()) + blockSize - 1) / blockSize;
+        int start = readAhead.getPrefetchStart();
+        int count = (int) Math.min(readAhead.getPrefetchCount(), fileBlocks - start);
+        if (count > 0) {
+            prefetcher.execute(() -> prefetch(openFile, start, count));
+        }
+    }
+
+    /**
+     * Background task reading <code>count</code> logical blocks of the file
+     * from <code>firstBlock</code> on into the block cache.  Holding the
+     * inode lock keeps the blocks from being freed or written meanwhile.
+     */
+    private void prefetch(OpenFile openFile, int firstBlock, int count) {
+        Lock iNodeLock = iNodeLocks.forINode(openFile.getINodeNumber()).readLock();
+        iNodeLock.lock();
+        try {
+            INode inode = openFile.getINode();
+            long fileBlocks = (Math.max(0, inode.getSize()) + blockSize - 1) / blockSize;
+            int available = (int) Math.min(count, fileBlocks - firstBlock);
+            if (available > 0) {
+                blockCache.prefetch(blocksFor(inode, firstBlock, available));
+            }
+        } catch (IOException e) {
+            // read-ahead is only a hint; a read of the blocks reports the failure
+        } finally {
+            iNodeLock.unlock();
+        }
+    }
+
+    /**
+     * Drops queued prefetches and waits for one in progress to finish
+     */
+    private void stopPrefetcher() {
+        prefetcher.shutdownNow();
+        try {
+            prefetcher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Background task of <code>PERIODIC</code> mode
+     */
+    private void periodicSync() {
+        try {
+            sync();
+        } catch (IOException e) {
+            // the task must keep running; the next explicit sync reports the failure
+        }
+    }
+
+    /**
+     * Cancels the background task of <code>PERIODIC</code> mode and waits
+     * for a run in progress to finish
+     */
+    private void stopPeriodicSync() {
+        durabilityLock.lock();
+        try {
+            if (periodicSync == null) {
+                return;
+            }
+            periodicSync.shutdown();
+            try {
+                periodicSync.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            periodicSync = null;
+        } finally {
+            durabilityLock.unlock();
+        }
     }
 
 }
\ No newline at end of file
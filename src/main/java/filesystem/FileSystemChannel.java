@@ -0,0 +1,141 @@
+package filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+
+/**
+ * <code>SeekableByteChannel</code> over a file open in a
+ * <code>FileSystem</code>.  The channel's position is the descriptor's
+ * position.  Closing the channel closes the descriptor.
+ */
+class FileSystemChannel implements SeekableByteChannel {
+    /**
+     * Largest transfer staged through a heap array for buffers without one
+     */
+    private static final int TRANSFER_SIZE = 64 * 1024;
+
+    /**
+     * Staging arrays shared by every channel, so transfers through direct
+     * buffers do not allocate
+     */
+    private static final BufferPool TRANSFER_BUFFERS = new BufferPool(TRANSFER_SIZE, 8, false);
+
+    private final FileSystem fileSystem;
+    private final int fileDescriptor;
+    private boolean open = true;
+
+    FileSystemChannel(FileSystem fileSystem, int fileDescriptor) {
+        this.fileSystem = fileSystem;
+        this.fileDescriptor = fileDescriptor;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+
+        if (dst.hasArray()) {
+            int bytesRead = fileSystem.read(fileDescriptor, dst.array(),
+                    dst.arrayOffset() + dst.position(), dst.remaining());
+            if (bytesRead > 0) {
+                dst.position(dst.position() + bytesRead);
+            }
+            return bytesRead;
+        }
+
+        ByteBuffer staging = TRANSFER_BUFFERS.acquire();
+        try {
+            int bytesRead = fileSystem.read(fileDescriptor, staging.array(), 0,
+                    Math.min(dst.remaining(), TRANSFER_SIZE));
+            if (bytesRead > 0) {
+                dst.put(staging.array(), 0, bytesRead);
+            }
+            return bytesRead;
+        } finally {
+            TRANSFER_BUFFERS.release(staging);
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+
+        if (src.hasArray()) {
+            int bytesWritten = fileSystem.write(fileDescriptor, src.array(),
+                    src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.position() + bytesWritten);
+            return bytesWritten;
+        }
+
+        ByteBuffer staging = TRANSFER_BUFFERS.acquire();
+        try {
+            int total = 0;
+            while (src.hasRemaining()) {
+                int chunk = Math.min(src.remaining(), TRANSFER_SIZE);
+                src.get(staging.array(), 0, chunk);
+                total += fileSystem.write(fileDescriptor, staging.array(), 0, chunk);
+            }
+            return total;
+        } finally {
+            TRANSFER_BUFFERS.release(staging);
+        }
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return fileSystem.getPosition(fileDescriptor);
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        fileSystem.seek(fileDescriptor, newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return fileSystem.getFileSize(fileDescriptor);
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        ensureOpen();
+        if (size < 0) {
+            throw new IllegalArgumentException("FileSystemChannel::truncate: negative size " + size);
+        }
+        if (size < fileSystem.getFileSize(fileDescriptor)) {
+            fileSystem.truncate(fileDescriptor, size);
+        }
+        if (fileSystem.getPosition(fileDescriptor) > size) {
+            fileSystem.seek(fileDescriptor, size);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            fileSystem.close(fileDescriptor);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
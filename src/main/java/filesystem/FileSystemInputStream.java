@@ -0,0 +1,69 @@
+package filesystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+
+/**
+ * <code>InputStream</code> over a file open in a <code>FileSystem</code>.
+ * Reads start at the descriptor's position and advance it.  Closing the
+ * stream closes the descriptor.
+ */
+class FileSystemInputStream extends InputStream {
+    private final FileSystem fileSystem;
+    private final int fileDescriptor;
+    private boolean closed;
+
+    FileSystemInputStream(FileSystem fileSystem, int fileDescriptor) {
+        this.fileSystem = fileSystem;
+        this.fileDescriptor = fileDescriptor;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        Objects.checkFromIndexSize(offset, length, buffer.length);
+        ensureOpen();
+        return fileSystem.read(fileDescriptor, buffer, offset, length);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        if (n <= 0) {
+            return 0;
+        }
+
+        long position = fileSystem.getPosition(fileDescriptor);
+        long skipped = Math.max(0, Math.min(n, fileSystem.getFileSize(fileDescriptor) - position));
+        fileSystem.seek(fileDescriptor, position + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        long remaining = fileSystem.getFileSize(fileDescriptor) - fileSystem.getPosition(fileDescriptor);
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, remaining));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            fileSystem.close(fileDescriptor);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("FileSystemInputStream::read: stream is closed");
+        }
+    }
+}
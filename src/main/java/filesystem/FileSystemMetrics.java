@@ -0,0 +1,268 @@
+package filesystem;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * Metrics registry of a <code>FileSystem</code>:  a latency histogram per
+ * operation, the I/O counters of its disk and gauges of the free space.
+ *
+ * The live figures can be read here or through JMX once
+ * <code>register</code> has been called; <code>snapshot</code> copies them
+ * all at once for logging or comparison.
+ */
+public final class FileSystemMetrics implements FileSystemMetricsMXBean {
+    /**
+     * File system calls that are timed
+     */
+    public enum Operation {
+        CREATE, OPEN, READ, WRITE, CLOSE, DELETE
+    }
+
+    public static final String JMX_DOMAIN = "filesystem";
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final IOCounters counters;
+    private final IntSupplier freeBlocks;
+    private final IntSupplier freeInodes;
+
+    private final List<ObjectName> registeredNames = new ArrayList<>();
+
+    FileSystemMetrics(IOCounters counters, IntSupplier freeBlocks, IntSupplier freeInodes) {
+        this.counters = counters;
+        this.freeBlocks = freeBlocks;
+        this.freeInodes = freeInodes;
+        for (Operation operation : Operation.values()) {
+            latencies[operation.ordinal()] = new LatencyHistogram(operation.name().toLowerCase());
+        }
+    }
+
+    /**
+     * Records that <code>operation</code> started at <code>startNanos</code>,
+     * a value of <code>System.nanoTime()</code>, and has just finished
+     */
+    void record(Operation operation, long startNanos) {
+        latencies[operation.ordinal()].recordSince(startNanos);
+    }
+
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    public IOCounters getCounters() {
+        return counters;
+    }
+
+    @Override
+    public long getBlocksRead() {
+        return counters.getBlocksRead();
+    }
+
+    @Override
+    public long getBlocksWritten() {
+        return counters.getBlocksWritten();
+    }
+
+    @Override
+    public long getInodesRead() {
+        return counters.getInodesRead();
+    }
+
+    @Override
+    public long getInodesWritten() {
+        return counters.getInodesWritten();
+    }
+
+    @Override
+    public long getFreeListReads() {
+        return counters.getFreeListReads();
+    }
+
+    @Override
+    public long getFreeListWrites() {
+        return counters.getFreeListWrites();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return counters.getBytesRead();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return counters.getBytesWritten();
+    }
+
+    @Override
+    public int getFreeBlocks() {
+        return freeBlocks.getAsInt();
+    }
+
+    @Override
+    public int getFreeInodes() {
+        return freeInodes.getAsInt();
+    }
+
+    /**
+     * Copies every figure as it is now
+     */
+    public Snapshot snapshot() {
+        Map<Operation, LatencyHistogram.Summary> summaries = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            summaries.put(operation, getLatency(operation).summarize());
+        }
+        return new Snapshot(summaries, getBlocksRead(), getBlocksWritten(), getInodesRead(),
+                getInodesWritten(), getFreeListReads(), getFreeListWrites(), getBytesRead(),
+                getBytesWritten(), getFreeBlocks(), getFreeInodes());
+    }
+
+    /**
+     * Registers this registry and one histogram per operation with the
+     * platform MBean server, as <code>filesystem:type=FileSystem,name=...</code>
+     * and <code>filesystem:type=Latency,name=...,operation=...</code>
+     *
+     * @param name Distinguishes this file system from others in the JVM
+     * @throws JMException If the names are taken or invalid
+     */
+    void register(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String quoted = ObjectName.quote(name);
+
+        try {
+            registerBean(server, this, JMX_DOMAIN + ":type=FileSystem,name=" + quoted);
+            for (LatencyHistogram latency : latencies) {
+                registerBean(server, latency, JMX_DOMAIN + ":type=Latency,name=" + quoted +
+                        ",operation=" + latency.getName());
+            }
+        } catch (JMException e) {
+            unregister();
+            throw e;
+        }
+    }
+
+    private void registerBean(MBeanServer server, Object bean, String name) throws JMException {
+        ObjectName objectName = new ObjectName(name);
+        server.registerMBean(bean, objectName);
+        registeredNames.add(objectName);
+    }
+
+    /**
+     * Removes every MBean added by <code>register</code>
+     */
+    void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registeredNames) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+        registeredNames.clear();
+    }
+
+    /**
+     * Every figure of the registry at one point in time
+     */
+    public static final class Snapshot {
+        private final Map<Operation, LatencyHistogram.Summary> latencies;
+        private final long blocksRead;
+        private final long blocksWritten;
+        private final long inodesRead;
+        private final long inodesWritten;
+        private final long freeListReads;
+        private final long freeListWrites;
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final int freeBlocks;
+        private final int freeInodes;
+
+        Snapshot(Map<Operation, LatencyHistogram.Summary> latencies, long blocksRead, long blocksWritten,
+                 long inodesRead, long inodesWritten, long freeListReads, long freeListWrites,
+                 long bytesRead, long bytesWritten, int freeBlocks, int freeInodes) {
+            this.latencies = Collections.unmodifiableMap(latencies);
+            this.blocksRead = blocksRead;
+            this.blocksWritten = blocksWritten;
+            this.inodesRead = inodesRead;
+            this.inodesWritten = inodesWritten;
+            this.freeListReads = freeListReads;
+            this.freeListWrites = freeListWrites;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.freeBlocks = freeBlocks;
+            this.freeInodes = freeInodes;
+        }
+
+        public LatencyHistogram.Summary getLatency(Operation operation) {
+            return latencies.get(operation);
+        }
+
+        public Map<Operation, LatencyHistogram.Summary> getLatencies() {
+            return latencies;
+        }
+
+        public long getBlocksRead() {
+            return blocksRead;
+        }
+
+        public long getBlocksWritten() {
+            return blocksWritten;
+        }
+
+        public long getInodesRead() {
+            return inodesRead;
+        }
+
+        public long getInodesWritten() {
+            return inodesWritten;
+        }
+
+        public long getFreeListReads() {
+            return freeListReads;
+        }
+
+        public long getFreeListWrites() {
+            return freeListWrites;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public int getFreeBlocks() {
+            return freeBlocks;
+        }
+
+        public int getFreeInodes() {
+            return freeInodes;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (LatencyHistogram.Summary summary : latencies.values()) {
+                text.append(summary).append('\n');
+            }
+            text.append("blocks read ").append(blocksRead).append(", written ").append(blocksWritten)
+                .append("; inodes read ").append(inodesRead).append(", written ").append(inodesWritten)
+                .append("; free list reads ").append(freeListReads).append(", writes ").append(freeListWrites)
+                .append("; bytes read ").append(bytesRead).append(", written ").append(bytesWritten)
+                .append('\n')
+                .append("free blocks ").append(freeBlocks).append(", free inodes ").append(freeInodes);
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package filesystem;
+
+
+/**
+ * JMX view of the I/O counters and space gauges of a mounted file system,
+ * registered by <code>FileSystem.registerMBeans</code>
+ */
+public interface FileSystemMetricsMXBean {
+    long getBlocksRead();
+
+    long getBlocksWritten();
+
+    long getInodesRead();
+
+    long getInodesWritten();
+
+    long getFreeListReads();
+
+    long getFreeListWrites();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    int getFreeBlocks();
+
+    int getFreeInodes();
+}
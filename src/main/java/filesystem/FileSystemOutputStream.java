@@ -0,0 +1,45 @@
+package filesystem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+
+/**
+ * <code>OutputStream</code> over a file open in a <code>FileSystem</code>.
+ * Writes go to the descriptor's position and advance it.  Closing the
+ * stream closes the descriptor, which writes the file's blocks and inode
+ * back to the disk.
+ */
+class FileSystemOutputStream extends OutputStream {
+    private final FileSystem fileSystem;
+    private final int fileDescriptor;
+    private boolean closed;
+
+    FileSystemOutputStream(FileSystem fileSystem, int fileDescriptor) {
+        this.fileSystem = fileSystem;
+        this.fileDescriptor = fileDescriptor;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        Objects.checkFromIndexSize(offset, length, buffer.length);
+        if (closed) {
+            throw new IOException("FileSystemOutputStream::write: stream is closed");
+        }
+        fileSystem.write(fileDescriptor, buffer, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            fileSystem.close(fileDescriptor);
+        }
+    }
+}
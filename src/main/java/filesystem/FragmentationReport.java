@@ -0,0 +1,117 @@
+package filesystem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Snapshot of how fragmented the files and the free space on a disk are.
+ * An extent is a run of consecutive block numbers; a file stored in one
+ * extent can be read or written sequentially.
+ */
+public class FragmentationReport {
+
+    /**
+     * Layout of a single file
+     */
+    public static class FileEntry {
+        private final String fileName;
+        private final int blocks;
+        private final int extents;
+
+        FileEntry(String fileName, int blocks, int extents) {
+            this.fileName = fileName;
+            this.blocks = blocks;
+            this.extents = extents;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public int getBlocks() {
+            return blocks;
+        }
+
+        public int getExtents() {
+            return extents;
+        }
+
+        /**
+         * A file is fragmented when its blocks do not form a single extent
+         */
+        public boolean isFragmented() {
+            return extents > 1;
+        }
+
+        @Override
+        public String toString() {
+            return fileName + ": " + blocks + " blocks in " + extents + " extent(s)";
+        }
+    }
+
+    private final List<FileEntry> files = new ArrayList<>();
+    private int freeBlocks;
+    private int freeExtents;
+    private int largestFreeExtent;
+
+    void addFile(FileEntry entry) {
+        files.add(entry);
+    }
+
+    void addFreeExtent(int length) {
+        freeBlocks += length;
+        freeExtents++;
+        largestFreeExtent = Math.max(largestFreeExtent, length);
+    }
+
+    public List<FileEntry> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    public int getFragmentedFileCount() {
+        int count = 0;
+        for (FileEntry entry : files) {
+            if (entry.isFragmented()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the average number of extents per file that holds data
+     */
+    public double getAverageExtentsPerFile() {
+        int filesWithData = 0;
+        int extents = 0;
+        for (FileEntry entry : files) {
+            if (entry.getBlocks() > 0) {
+                filesWithData++;
+                extents += entry.getExtents();
+            }
+        }
+        return filesWithData == 0 ? 0.0 : (double) extents / filesWithData;
+    }
+
+    public int getFreeBlocks() {
+        return freeBlocks;
+    }
+
+    public int getFreeExtents() {
+        return freeExtents;
+    }
+
+    public int getLargestFreeExtent() {
+        return largestFreeExtent;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("files=%d fragmented=%d avgExtents=%.2f " +
+                        "freeBlocks=%d freeExtents=%d largestFreeExtent=%d",
+                files.size(), getFragmentedFileCount(), getAverageExtentsPerFile(),
+                freeBlocks, freeExtents, largestFreeExtent);
+    }
+}
@@ -1,15 +1,86 @@
 package filesystem;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 
 public class FreeBlockList {
-    private byte[] freeList;
+    private static final int BITS_PER_WORD = Long.SIZE;
+
+    /**
+     * One bit per block, 64 blocks to a word.  Block <code>b</code> is bit
+     * <code>b % 64</code> of word <code>b / 64</code>, which matches the
+     * byte packed layout on disk (bit <code>b % 8</code> of byte
+     * <code>b / 8</code>) when the words are read as little-endian bytes.
+     */
+    private long[] words;
+
+    /**
+     * Blocks freed on the disk but not yet handed out again, set in both
+     * <code>words</code> and here.  See <code>holdBlock</code>.
+     */
+    private long[] heldWords;
+    private int heldBlockCount;
+
+    private final int numBlocks;
+    private final int numBytes;
+
+    private int freeBlockCount;
+
+    /**
+     * Next-fit cursor, the block at which the next search for free
+     * blocks starts.
+     */
+    private int cursor;
+
+    private boolean dirty;
+
+    /**
+     * Guards the bitmap, the counter and the cursor.  The list has its own
+     * lock so allocation never waits on inode or cache locks.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
 
     public FreeBlockList() {
-        freeList = new byte[Disk.BYTES_IN_FREE_SPACE_LIST];
+        this(Disk.NUM_BLOCKS);
+    }
+
+    /**
+     * Creates an empty list for a disk of <code>numBlocks</code> blocks
+     *
+     * @param numBlocks - number of data blocks, a multiple of 8
+     */
+    public FreeBlockList(int numBlocks) {
+        if (numBlocks <= 0 || numBlocks % 8 != 0) {
+            throw new IllegalArgumentException("FreeBlockList:: FreeBlockList: " +
+                    "block count " + numBlocks + " is not a positive multiple of 8");
+        }
+        this.numBlocks = numBlocks;
+        this.numBytes = numBlocks / 8;
+        this.words = new long[(numBlocks + BITS_PER_WORD - 1) / BITS_PER_WORD];
+        this.heldWords = new long[words.length];
+        this.freeBlockCount = numBlocks;
+        this.cursor = 0;
+        this.dirty = false;
+        markTailAllocated();
     }
 
+    /**
+     * Returns the free block list in the byte packed layout stored on disk
+     *
+     * @return A new array holding one bit per block
+     */
     public byte[] getFreeBlockList() {
-        return freeList;
+        lock.lock();
+        try {
+            byte[] freeList = new byte[numBytes];
+
+            for (int i = 0; i < numBytes; i++) {
+                freeList[i] = (byte) ((words[i / 8] & ~heldWords[i / 8]) >>> ((i % 8) * 8));
+            }
+            return freeList;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -21,13 +92,34 @@ public class FreeBlockList {
      *                                  the free space list length in bytes
      */
     public void setFreeBlockList(byte[] list) throws IllegalArgumentException {
-        if (list.length != Disk.BYTES_IN_FREE_SPACE_LIST) {
-            throw new IllegalArgumentException("FreeBlockList:: setFreeBlockList: " +
-                    "setting free block list of size " + list.length +
-                    " it should be of length " + Disk.BYTES_IN_FREE_SPACE_LIST);
-        }
+        lock.lock();
+        try {
+            if (list.length != numBytes) {
+                throw new IllegalArgumentException("FreeBlockList:: setFreeBlockList: " +
+                        "setting free block list of size " + list.length +
+                        " it should be of length " + numBytes);
+            }
+
+            long[] newWords = new long[words.length];
+            for (int i = 0; i < list.length; i++) {
+                newWords[i / 8] |= (list[i] & 0xFFL) << ((i % 8) * 8);
+            }
+
+            this.words = newWords;
+            this.heldWords = new long[newWords.length];
+            this.heldBlockCount = 0;
+            markTailAllocated();
 
-        this.freeList = list;
+            int allocated = 0;
+            for (long word : words) {
+                allocated += Long.bitCount(word);
+            }
+            this.freeBlockCount = words.length * BITS_PER_WORD - allocated;
+            this.cursor = 0;
+            this.dirty = false;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -37,23 +129,28 @@ public class FreeBlockList {
      */
 
     public void allocateBlock(int whichBlock) {
-        int blockNum = (int) (whichBlock / 8);
-        int offset = whichBlock % 8;
-
-        /**
-         * Extract the correct byte in which the block falls
-         *
-         * Blocks are arranged from 0..max_block
-         *
-         * Each block has a bit that tells whether or not the block
-         * is free (0) or taken(1).  The list of bits are grouped
-         * 8-bits at a time.  So we divide by 8 to compute the
-         * byte in which a block number falls.  We do a modulo 8
-         * to find the offset within the byte.
-         *
-         * It is assumed that block numbers begin with 0
-         */
-        freeList[blockNum] = (byte) (freeList[blockNum] | (1 << offset));
+        lock.lock();
+        try {
+            int wordNum = whichBlock / BITS_PER_WORD;
+            long mask = 1L << (whichBlock % BITS_PER_WORD);
+
+            /**
+             * Each block has a bit that tells whether or not the block
+             * is free (0) or taken(1).  The list of bits are grouped
+             * 64-bits at a time.  So we divide by 64 to compute the
+             * word in which a block number falls.  We do a modulo 64
+             * to find the offset within the word.
+             *
+             * It is assumed that block numbers begin with 0
+             */
+            if ((words[wordNum] & mask) == 0) {
+                words[wordNum] |= mask;
+                freeBlockCount--;
+                dirty = true;
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -63,18 +160,394 @@ public class FreeBlockList {
      */
 
     public void deallocateBlock(int whichBlock) {
-        int blockNum = (int) (whichBlock / 8);
+        lock.lock();
+        try {
+            int wordNum = whichBlock / BITS_PER_WORD;
+            long mask = 1L << (whichBlock % BITS_PER_WORD);
 
-        int offset = whichBlock % 8;
+            /**
+             * mask out the bit for the appropriate block by doing an AND
+             * function with the complement of the mask used to set it.
+             */
+            if ((words[wordNum] & mask) != 0) {
+                words[wordNum] &= ~mask;
+                freeBlockCount++;
+                dirty = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        /**
-         * mask out the bit for the appropriate block by doing an AND
-         * function with the complement of the mask used to set it.
-         */
-        freeList[blockNum] = (byte) (freeList[blockNum] & (~(1 << offset)));
+    /**
+     * Frees the block given by <code>whichBlock</code> in the list written
+     * to the disk but keeps it from being allocated until
+     * <code>releaseHeldBlocks</code> hands it back.  Used for blocks whose
+     * old contents may still be written to them by a pending commit or a
+     * journal replay.
+     *
+     * @param whichBlock - allocated block to hold
+     */
+    public void holdBlock(int whichBlock) {
+        lock.lock();
+        try {
+            int wordNum = whichBlock / BITS_PER_WORD;
+            long mask = 1L << (whichBlock % BITS_PER_WORD);
+
+            if ((words[wordNum] & mask) != 0 && (heldWords[wordNum] & mask) == 0) {
+                heldWords[wordNum] |= mask;
+                heldBlockCount++;
+                dirty = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the blocks held by <code>holdBlock</code> and not yet released
+     */
+    public int[] getHeldBlocks() {
+        lock.lock();
+        try {
+            int[] held = new int[heldBlockCount];
+            int found = 0;
+            for (int wordNum = 0; wordNum < heldWords.length; wordNum++) {
+                for (long bits = heldWords[wordNum]; bits != 0; bits &= bits - 1) {
+                    held[found++] = wordNum * BITS_PER_WORD + Long.numberOfTrailingZeros(bits);
+                }
+            }
+            return held;
+        } finally {
+            lock.unlock();
+        }
     }
 
+    /**
+     * Makes held blocks available for allocation.  The list on the disk
+     * already shows them free, so it does not change.
+     *
+     * @param blocks - blocks returned by an earlier <code>getHeldBlocks</code>
+     */
+    public void releaseHeldBlocks(int[] blocks) {
+        lock.lock();
+        try {
+            for (int whichBlock : blocks) {
+                int wordNum = whichBlock / BITS_PER_WORD;
+                long mask = 1L << (whichBlock % BITS_PER_WORD);
+
+                if ((heldWords[wordNum] & mask) != 0) {
+                    heldWords[wordNum] &= ~mask;
+                    words[wordNum] &= ~mask;
+                    heldBlockCount--;
+                    freeBlockCount++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether block <code>i</code> is allocated
+     *
+     * @param i - block to test
+     * @return true if the block is in use, false if it is free
+     */
     public boolean isBlockAllocated(int i) {
-        return false;
+        lock.lock();
+        try {
+            return (words[i / BITS_PER_WORD] & (1L << (i % BITS_PER_WORD))) != 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Allocates <code>n</code> free blocks.  The search starts at the
+     * next-fit cursor, skips full words and takes free bits a word at a
+     * time, wrapping around to block 0 when it reaches the end.
+     *
+     * @param n - number of blocks to allocate
+     * @return The allocated block numbers, in the order they were found
+     * @throws IllegalStateException If fewer than <code>n</code> blocks are free
+     */
+    public int[] allocate(int n) throws IllegalStateException {
+        lock.lock();
+        try {
+            if (n > freeBlockCount) {
+                throw new IllegalStateException("FreeBlockList::allocate: " +
+                        n + " blocks requested but only " +
+                        freeBlockCount + " are free");
+            }
+
+            int[] allocated = new int[n];
+            if (n == 0) {
+                return allocated;
+            }
+
+            int found = 0;
+            int wordNum = cursor / BITS_PER_WORD;
+
+            /**
+             * Bits below the cursor in its first word are masked off on the
+             * first pass so the search really starts at the cursor.
+             */
+            long skipMask = -1L << (cursor % BITS_PER_WORD);
+
+            for (int scanned = 0; found < n && scanned <= words.length; scanned++) {
+                long free = ~words[wordNum] & skipMask;
+
+                while (free != 0 && found < n) {
+                    int bit = Long.numberOfTrailingZeros(free);
+                    free &= free - 1;
+                    words[wordNum] |= 1L << bit;
+                    allocated[found++] = wordNum * BITS_PER_WORD + bit;
+                }
+
+                skipMask = -1L;
+                if (found < n) {
+                    wordNum = (wordNum + 1) % words.length;
+                }
+            }
+
+            freeBlockCount -= found;
+            cursor = (allocated[n - 1] + 1) % numBlocks;
+            dirty = true;
+
+            return allocated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Allocates <code>n</code> free blocks as a few contiguous extents as
+     * possible.  Each pass picks the smallest free run that can hold the
+     * rest of the request (best fit); if no run is large enough the
+     * largest run is taken whole and the search repeats for the remainder.
+     *
+     * @param n - number of blocks to allocate
+     * @return The allocated block numbers, ascending within each extent
+     * @throws IllegalStateException If fewer than <code>n</code> blocks are free
+     */
+    public int[] allocateContiguous(int n) throws IllegalStateException {
+        lock.lock();
+        try {
+            if (n > freeBlockCount) {
+                throw new IllegalStateException("FreeBlockList::allocateContiguous: " +
+                        n + " blocks requested but only " +
+                        freeBlockCount + " are free");
+            }
+
+            int[] allocated = new int[n];
+            int found = 0;
+
+            while (found < n) {
+                int remaining = n - found;
+                int bestStart = -1;
+                int bestLength = 0;
+                int largestStart = -1;
+                int largestLength = 0;
+
+                int start = findFreeBlock(0);
+                while (start >= 0) {
+                    int end = findAllocatedBlock(start);
+                    int length = end - start;
+
+                    if (length >= remaining && (bestStart < 0 || length < bestLength)) {
+                        bestStart = start;
+                        bestLength = length;
+                        if (length == remaining) {
+                            break;
+                        }
+                    }
+                    if (length > largestLength) {
+                        largestStart = start;
+                        largestLength = length;
+                    }
+                    start = findFreeBlock(end);
+                }
+
+                int extentStart = bestStart >= 0 ? bestStart : largestStart;
+                int extentLength = Math.min(remaining, bestStart >= 0 ? bestLength : largestLength);
+
+                for (int block = extentStart; block < extentStart + extentLength; block++) {
+                    words[block / BITS_PER_WORD] |= 1L << (block % BITS_PER_WORD);
+                    allocated[found++] = block;
+                }
+            }
+
+            freeBlockCount -= n;
+            if (n > 0) {
+                cursor = (allocated[n - 1] + 1) % numBlocks;
+                dirty = true;
+            }
+
+            return allocated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Allocates the free blocks directly following each other from
+     * <code>fromBlock</code>, stopping at the first allocated block or after
+     * <code>maxBlocks</code> blocks.  Used to grow a file in place.
+     *
+     * @param fromBlock - first block to take
+     * @param maxBlocks - largest number of blocks to take
+     * @return The allocated block numbers, possibly none
+     */
+    public int[] allocateRun(int fromBlock, int maxBlocks) {
+        lock.lock();
+        try {
+            if (fromBlock < 0 || fromBlock >= numBlocks || maxBlocks <= 0) {
+                return new int[0];
+            }
+
+            int end = Math.min(findAllocatedBlock(fromBlock), fromBlock + maxBlocks);
+            int[] allocated = new int[Math.max(0, end - fromBlock)];
+
+            for (int block = fromBlock; block < end; block++) {
+                words[block / BITS_PER_WORD] |= 1L << (block % BITS_PER_WORD);
+                allocated[block - fromBlock] = block;
+            }
+
+            if (allocated.length > 0) {
+                freeBlockCount -= allocated.length;
+                cursor = end % numBlocks;
+                dirty = true;
+            }
+            return allocated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * <code>nextFreeBlock</code> for callers already holding the lock
+     */
+    private int findFreeBlock(int fromBlock) {
+        if (fromBlock >= numBlocks) {
+            return -1;
+        }
+
+        int wordNum = fromBlock / BITS_PER_WORD;
+        long free = ~words[wordNum] & (-1L << (fromBlock % BITS_PER_WORD));
+
+        while (free == 0) {
+            if (++wordNum == words.length) {
+                return -1;
+            }
+            free = ~words[wordNum];
+        }
+        return wordNum * BITS_PER_WORD + Long.numberOfTrailingZeros(free);
+    }
+
+    /**
+     * <code>nextAllocatedBlock</code> for callers already holding the lock
+     */
+    private int findAllocatedBlock(int fromBlock) {
+        if (fromBlock >= numBlocks) {
+            return numBlocks;
+        }
+
+        int wordNum = fromBlock / BITS_PER_WORD;
+        long used = words[wordNum] & (-1L << (fromBlock % BITS_PER_WORD));
+
+        while (used == 0) {
+            if (++wordNum == words.length) {
+                return numBlocks;
+            }
+            used = words[wordNum];
+        }
+        return Math.min(numBlocks, wordNum * BITS_PER_WORD + Long.numberOfTrailingZeros(used));
+    }
+
+    /**
+     * Returns the first free block at or after <code>fromBlock</code>
+     *
+     * @param fromBlock - block at which to start looking
+     * @return The free block number, or -1 if there is none
+     */
+    int nextFreeBlock(int fromBlock) {
+        lock.lock();
+        try {
+            return findFreeBlock(fromBlock);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the first allocated block at or after <code>fromBlock</code>
+     *
+     * @param fromBlock - block at which to start looking
+     * @return The allocated block number, or the number of blocks if every
+     *         block from <code>fromBlock</code> on is free
+     */
+    int nextAllocatedBlock(int fromBlock) {
+        lock.lock();
+        try {
+            return findAllocatedBlock(fromBlock);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of free blocks
+     */
+    public int getFreeBlockCount() {
+        lock.lock();
+        try {
+            return freeBlockCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether the list has changed since it was last loaded or flushed
+     */
+    public boolean isDirty() {
+        lock.lock();
+        try {
+            return dirty;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the byte packed list and marks it clean in one step, so a
+     * change made while the snapshot is written is not lost
+     *
+     * @return The list in its disk layout, or null if it has not changed
+     *         since the last snapshot
+     */
+    public byte[] snapshotIfDirty() {
+        lock.lock();
+        try {
+            if (!dirty) {
+                return null;
+            }
+            dirty = false;
+            return getFreeBlockList();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bits past the last block in the final word do not correspond to any
+     * block, so they are kept set and are never handed out.
+     */
+    private void markTailAllocated() {
+        int tailBits = words.length * BITS_PER_WORD - numBlocks;
+        if (tailBits > 0) {
+            words[words.length - 1] |= -1L << (BITS_PER_WORD - tailBits);
+        }
     }
 }
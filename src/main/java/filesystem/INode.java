@@ -1,5 +1,6 @@
 package filesystem;
 
+import java.nio.ByteBuffer;
 
 public class INode {
     public final static int NUM_BLOCK_POINTERS = 32;
@@ -7,6 +8,12 @@ public class INode {
     public final static int SIZE_FIELD_SIZE = Integer.SIZE;
     public final static int BLOCK_POINTER_SIZE = Integer.SIZE;
 
+    /**
+     * Largest file whose bytes are kept in the inode in place of its block
+     * pointers
+     */
+    public final static int INLINE_DATA_SIZE = NUM_BLOCK_POINTERS * Integer.BYTES;
+
     /**
      * File name size + size(integer) + size(integer  * number_of_block_addresses
      */
@@ -15,8 +22,17 @@ public class INode {
             (Integer.SIZE * NUM_BLOCK_POINTERS);
 
     private String fileName;
+    // fileName as stored on the disk, or null when there is no name
+    private byte[] fileNameBytes;
     private int fileSize;
     private int[] blockPointers;
+    private int singleIndirectPointer;
+    private int doubleIndirectPointer;
+    // inode of the directory holding this one, -1 for the root directory
+    private int parent;
+    private boolean directory;
+    // the file's bytes, zero padded to INLINE_DATA_SIZE, or null when it uses blocks
+    private byte[] inlineData;
     private Object blockNumbers;
 
 
@@ -27,6 +43,10 @@ public class INode {
         for (int i = 0; i < blockPointers.length; i++) {
             blockPointers[i] = -1;
         }
+        singleIndirectPointer = -1;
+        doubleIndirectPointer = -1;
+        parent = -1;
+        directory = false;
     }
 
     /**
@@ -66,13 +86,16 @@ public class INode {
      *                                  allowed length of 64 bytes
      */
     public void setFileName(String name) throws IllegalArgumentException {
+        byte[] nameBytes = null;
         if (name != null) {
-            if (name.length() > INode.FILE_NAME_SIZE) {
+            nameBytes = name.getBytes();
+            if (name.length() > INode.FILE_NAME_SIZE || nameBytes.length > INode.FILE_NAME_SIZE) {
                 throw new IllegalArgumentException("INode::setFileName:  " +
                         "size exceeds " + INode.FILE_NAME_SIZE + " bytes");
             }
         }
         this.fileName = name;
+        this.fileNameBytes = nameBytes;
     }
 
     /**
@@ -88,22 +111,59 @@ public class INode {
      * @return Returns the name of the file name as a byte array
      */
     public byte[] getFileNameBytes() {
-        byte[] result = null;
-        byte[] contents = null;
+        byte[] result = new byte[FILE_NAME_SIZE];
 
-        result = new byte[FILE_NAME_SIZE];
-        for (int i = 0; i < result.length; i++) {
-            result[i] = 0;
+        if (fileNameBytes != null) {
+            System.arraycopy(fileNameBytes, 0, result, 0, fileNameBytes.length);
         }
 
-        if (fileName != null) {
-            contents = fileName.getBytes();
-            for (int i = 0; i < contents.length; i++) {
-                result[i] = contents[i];
-            }
+        return result;
+    }
+
+    /**
+     * Stores the name in the <code>FILE_NAME_SIZE</code> bytes of
+     * <code>buffer</code> starting at <code>cursor</code>, padded with zeros
+     */
+    void writeFileName(ByteBuffer buffer, int cursor) {
+        int length = 0;
+        if (fileNameBytes != null) {
+            buffer.put(cursor, fileNameBytes);
+            length = fileNameBytes.length;
         }
+        for (int i = length; i < FILE_NAME_SIZE; i++) {
+            buffer.put(cursor + i, (byte) 0);
+        }
+    }
 
-        return result;
+    /**
+     * Sets the name from the <code>FILE_NAME_SIZE</code> bytes of
+     * <code>buffer</code> starting at <code>cursor</code>.  An all-zero name
+     * is no name.  When the bytes are the ones the current name was read
+     * from, the current name is kept, so reading an inode again into the
+     * same <code>INode</code> allocates nothing.
+     */
+    void readFileName(ByteBuffer buffer, int cursor) {
+        boolean unchanged = fileNameBytes != null && fileNameBytes.length == FILE_NAME_SIZE;
+        int nameSum = 0;
+        for (int i = 0; i < FILE_NAME_SIZE; i++) {
+            byte value = buffer.get(cursor + i);
+            nameSum += value;
+            unchanged = unchanged && fileNameBytes[i] == value;
+        }
+
+        /**
+         * Null string is all 0's but
+         * the conversion makes it the empty string.
+         */
+        if (nameSum <= 0) {
+            fileName = null;
+            fileNameBytes = null;
+        } else if (!unchanged) {
+            byte[] nameBytes = new byte[FILE_NAME_SIZE];
+            buffer.get(cursor, nameBytes);
+            fileName = new String(nameBytes);
+            fileNameBytes = nameBytes;
+        }
     }
 
     /**
@@ -168,6 +228,89 @@ public class INode {
         };
     }
 
+    /**
+     * Returns the block holding the pointers to the data blocks that follow
+     * the direct ones
+     * @return The single-indirect block, or -1 if the file has none
+     */
+    public int getSingleIndirectPointer() {
+        return singleIndirectPointer;
+    }
+
+    public void setSingleIndirectPointer(int value) {
+        this.singleIndirectPointer = value;
+    }
+
+    /**
+     * Returns the block holding pointers to blocks of pointers, for the data
+     * blocks past those of the single-indirect block
+     * @return The double-indirect block, or -1 if the file has none
+     */
+    public int getDoubleIndirectPointer() {
+        return doubleIndirectPointer;
+    }
+
+    public void setDoubleIndirectPointer(int value) {
+        this.doubleIndirectPointer = value;
+    }
+
+    /**
+     * Returns the inode of the directory this file or directory is in
+     * @return The directory's inode number, or -1 for the root directory
+     */
+    public int getParent() {
+        return parent;
+    }
+
+    public void setParent(int parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Returns whether this inode is a directory rather than a file
+     * @return Whether this inode is a directory
+     */
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(boolean directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns whether the file's bytes are stored in the inode itself, in
+     * which case it has no data blocks
+     */
+    public boolean hasInlineData() {
+        return inlineData != null;
+    }
+
+    /**
+     * Returns the file's bytes when they are stored in the inode.  The
+     * array is the inode's own, <code>INLINE_DATA_SIZE</code> bytes long,
+     * with zeros past the end of the file.
+     * @return The inline bytes, or null if the file uses data blocks
+     */
+    public byte[] getInlineData() {
+        return inlineData;
+    }
+
+    /**
+     * Stores the file's bytes in the inode, or with null moves them back
+     * to data blocks
+     * @param data <code>INLINE_DATA_SIZE</code> bytes, kept rather than copied
+     * @throws IllegalArgumentException If <code>data</code> is not
+     *                                  <code>INLINE_DATA_SIZE</code> bytes long
+     */
+    public void setInlineData(byte[] data) throws IllegalArgumentException {
+        if (data != null && data.length != INLINE_DATA_SIZE) {
+            throw new IllegalArgumentException("INode::setInlineData:  " +
+                    "inline data must be " + INLINE_DATA_SIZE + " bytes");
+        }
+        this.inlineData = data;
+    }
+
     public int[] getBlockNumbers() {
         return new int[0];
     }
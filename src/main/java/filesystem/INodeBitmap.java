@@ -0,0 +1,140 @@
+package filesystem;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * One bit per inode telling whether it is in use, by a named file or
+ * directory or by a file deleted while still open.
+ *
+ * On disks that have room for it the bitmap is stored next to the free
+ * block list, in the same layout (bit <code>n % 8</code> of byte
+ * <code>n / 8</code>), and written by metadata commits.  Mounting then
+ * only decodes the inodes whose bit is set.  Older disks have no room for
+ * it, so it is rebuilt from the inode names on every mount and kept only
+ * in memory.
+ *
+ * Has its own lock, like <code>FreeBlockList</code>, so it can be changed
+ * while a commit is not taking its snapshot.
+ */
+class INodeBitmap {
+    private final int numINodes;
+    private final BitSet used;
+    private boolean dirty;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    INodeBitmap(int numINodes) {
+        this.numINodes = numINodes;
+        this.used = new BitSet(numINodes);
+    }
+
+    /**
+     * Reads the bitmap of <code>disk</code>, or rebuilds it from the inode
+     * names if the disk does not store one
+     */
+    static INodeBitmap load(Disk disk) {
+        INodeBitmap bitmap = new INodeBitmap(disk.getNumInodes());
+
+        if (disk.hasInodeBitmap()) {
+            BitSet stored = BitSet.valueOf(disk.readInodeBitmap());
+            bitmap.used.or(stored.get(0, bitmap.numINodes));
+        } else {
+            for (int i = 0; i < bitmap.numINodes; i++) {
+                if (disk.isInodeNamed(i)) {
+                    bitmap.used.set(i);
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the lowest numbered free inode without reserving it
+     *
+     * @return The free inode number, or -1 if every inode is in use
+     */
+    int findFree() {
+        lock.lock();
+        try {
+            int free = used.nextClearBit(0);
+            return free < numINodes ? free : -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the first inode in use numbered <code>from</code> or higher
+     *
+     * @return The inode number, or -1 if there is none
+     */
+    int nextUsed(int from) {
+        lock.lock();
+        try {
+            return used.nextSetBit(from);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isUsed(int whichINode) {
+        lock.lock();
+        try {
+            return used.get(whichINode);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void allocate(int whichINode) {
+        lock.lock();
+        try {
+            used.set(whichINode);
+            dirty = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(int whichINode) {
+        lock.lock();
+        try {
+            used.clear(whichINode);
+            dirty = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getFreeCount() {
+        lock.lock();
+        try {
+            return numINodes - used.cardinality();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the bitmap in its disk layout and marks it clean in one step,
+     * so a change made while the snapshot is written is not lost
+     *
+     * @return The bitmap, or null if it has not changed since the last
+     *         snapshot
+     */
+    byte[] snapshotIfDirty() {
+        lock.lock();
+        try {
+            if (!dirty) {
+                return null;
+            }
+            dirty = false;
+            return Arrays.copyOf(used.toByteArray(), (numINodes + Byte.SIZE - 1) / Byte.SIZE);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package filesystem;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * In-memory copy of the inode table.
+ *
+ * Inodes are decoded from the disk the first time they are asked for, so
+ * mounting costs nothing here and inodes that are never used are never
+ * decoded.
+ *
+ * <code>FileSystem</code> works on the decoded <code>INode</code> objects held
+ * here and marks them dirty when it changes them.  A dirty inode is written
+ * to the disk once, by the next metadata commit, no matter how many times
+ * it changed in between.
+ *
+ * The dirty set has its own lock.  The fields of a cached inode are
+ * guarded by the per-inode locks held by <code>FileSystem</code>.
+ */
+class INodeCache {
+    private final Disk disk;
+    // null until first asked for
+    private final AtomicReferenceArray<INode> inodes;
+    private final BitSet dirty;
+    private final ReentrantLock dirtyLock = new ReentrantLock();
+    // one decode of an inode at a time, so two threads never get different copies
+    private final ReentrantLock loadLock = new ReentrantLock();
+
+    private volatile long loads;
+
+    private INodeCache(Disk disk) {
+        this.disk = disk;
+        this.inodes = new AtomicReferenceArray<>(disk.getNumInodes());
+        this.dirty = new BitSet(disk.getNumInodes());
+    }
+
+    /**
+     * Creates the cache of the inode table of <code>disk</code> without
+     * reading any inode yet
+     *
+     * @param disk Disk whose inodes are cached
+     * @return A cache that reads each inode of <code>disk</code> when first used
+     */
+    static INodeCache load(Disk disk) {
+        return new INodeCache(disk);
+    }
+
+    /**
+     * Returns the cached inode <code>whichINode</code>, decoding it from the
+     * disk if this is the first time it is asked for.  Changes made to it
+     * must be followed by <code>markDirty</code>.
+     *
+     * @throws IOException If the inode cannot be read
+     */
+    INode get(int whichINode) throws IOException {
+        INode inode = inodes.get(whichINode);
+        if (inode != null) {
+            return inode;
+        }
+
+        loadLock.lock();
+        try {
+            inode = inodes.get(whichINode);
+            if (inode == null) {
+                inode = disk.readInode(whichINode);
+                inodes.set(whichINode, inode);
+                loads++;
+            }
+            return inode;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces inode <code>whichINode</code> and marks it dirty
+     */
+    void put(int whichINode, INode inode) {
+        inodes.set(whichINode, inode);
+        markDirty(whichINode);
+    }
+
+    /**
+     * Number of inodes decoded from the disk so far
+     */
+    long getLoadCount() {
+        return loads;
+    }
+
+    void markDirty(int whichINode) {
+        dirtyLock.lock();
+        try {
+            dirty.set(whichINode);
+        } finally {
+            dirtyLock.unlock();
+        }
+    }
+
+    boolean isDirty(int whichINode) {
+        dirtyLock.lock();
+        try {
+            return dirty.get(whichINode);
+        } finally {
+            dirtyLock.unlock();
+        }
+    }
+
+    int getDirtyCount() {
+        dirtyLock.lock();
+        try {
+            return dirty.cardinality();
+        } finally {
+            dirtyLock.unlock();
+        }
+    }
+
+    int size() {
+        return inodes.length();
+    }
+
+    /**
+     * Adds the encoded fields of every dirty inode to <code>records</code>
+     * and marks the inodes clean
+     */
+    void snapshotDirty(List<Journal.Record> records) {
+        dirtyLock.lock();
+        try {
+            for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+                records.add(new Journal.Record(disk.getInodeOffset(i), Disk.encodeInode(inodes.get(i))));
+            }
+            dirty.clear();
+        } finally {
+            dirtyLock.unlock();
+        }
+    }
+}
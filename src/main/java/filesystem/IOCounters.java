@@ -0,0 +1,94 @@
+package filesystem;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Running totals of the transfers a <code>Disk</code> has made, by kind of
+ * data.  Counting never allocates once the adders have warmed up, so the
+ * counters are always on.
+ */
+public final class IOCounters {
+    private final LongAdder blocksRead = new LongAdder();
+    private final LongAdder blocksWritten = new LongAdder();
+    private final LongAdder inodesRead = new LongAdder();
+    private final LongAdder inodesWritten = new LongAdder();
+    private final LongAdder freeListReads = new LongAdder();
+    private final LongAdder freeListWrites = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    void blocksRead(int blocks, long bytes) {
+        blocksRead.add(blocks);
+        bytesRead.add(bytes);
+    }
+
+    void blocksWritten(int blocks, long bytes) {
+        blocksWritten.add(blocks);
+        bytesWritten.add(bytes);
+    }
+
+    void inodesRead(int inodes, long bytes) {
+        inodesRead.add(inodes);
+        bytesRead.add(bytes);
+    }
+
+    void inodesWritten(int inodes, long bytes) {
+        inodesWritten.add(inodes);
+        bytesWritten.add(bytes);
+    }
+
+    void freeListRead(long bytes) {
+        freeListReads.increment();
+        bytesRead.add(bytes);
+    }
+
+    void freeListWritten(long bytes) {
+        freeListWrites.increment();
+        bytesWritten.add(bytes);
+    }
+
+    /**
+     * Transfers that are none of the above, such as the superblock and the
+     * journal
+     */
+    void otherRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    void otherWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    public long getBlocksRead() {
+        return blocksRead.sum();
+    }
+
+    public long getBlocksWritten() {
+        return blocksWritten.sum();
+    }
+
+    public long getInodesRead() {
+        return inodesRead.sum();
+    }
+
+    public long getInodesWritten() {
+        return inodesWritten.sum();
+    }
+
+    public long getFreeListReads() {
+        return freeListReads.sum();
+    }
+
+    public long getFreeListWrites() {
+        return freeListWrites.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+}
@@ -0,0 +1,200 @@
+package filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Decoded contents of recently used indirect blocks.
+ *
+ * Resolving a logical block of a large file goes through one or two blocks
+ * of pointers.  Keeping them decoded here means a sequential read decodes
+ * each pointer block once instead of once per data block.
+ *
+ * Pointer blocks are metadata, so they bypass the <code>BlockCache</code>:
+ * they are read straight from the disk and changed blocks stay here, dirty,
+ * until <code>snapshotDirty</code> hands them to a journal commit.  Dirty
+ * blocks are never evicted, nor are snapshotted blocks until
+ * <code>committed</code> says their records are written in place, since
+ * reading one back before that would return its old pointers.  The map may
+ * therefore grow past its capacity between commits.
+ *
+ * The map has its own lock.  The pointers of a block are guarded by the
+ * lock of the inode that owns the block; arrays returned by
+ * <code>get</code> must not be modified.
+ */
+class IndirectBlockCache {
+    static final int DEFAULT_CAPACITY = 256;
+
+    private final Disk disk;
+    private final int pointersPerBlock;
+    private final int capacity;
+
+    private final Map<Integer, int[]> pointersByBlock;
+    private final Set<Integer> dirty = new HashSet<>();
+    // snapshotted by the running commit but not yet written in place
+    private final Set<Integer> committing = new HashSet<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile long hits;
+    private volatile long misses;
+
+    IndirectBlockCache(Disk disk) {
+        this(disk, DEFAULT_CAPACITY);
+    }
+
+    IndirectBlockCache(Disk disk, int capacity) {
+        this.disk = disk;
+        this.pointersPerBlock = disk.getGeometry().getPointersPerBlock();
+        this.capacity = capacity;
+        this.pointersByBlock = new LinkedHashMap<>(capacity * 2, 0.75f, true);
+    }
+
+    /**
+     * Returns the pointers stored in block <code>whichBlock</code>
+     *
+     * @throws IOException If the block cannot be read
+     */
+    int[] get(int whichBlock) throws IOException {
+        lock.lock();
+        try {
+            int[] pointers = pointersByBlock.get(whichBlock);
+
+            if (pointers != null) {
+                hits++;
+                return pointers;
+            }
+
+            misses++;
+            pointers = new int[pointersPerBlock];
+            disk.readPointers(whichBlock, pointers);
+            evictClean(capacity - 1);
+            pointersByBlock.put(whichBlock, pointers);
+            return pointers;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores <code>value</code> in entry <code>index</code> of block
+     * <code>whichBlock</code>
+     *
+     * @throws IOException If the block cannot be read
+     */
+    void set(int whichBlock, int index, int value) throws IOException {
+        lock.lock();
+        try {
+            get(whichBlock)[index] = value;
+            dirty.add(whichBlock);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes block <code>whichBlock</code> an empty pointer block
+     */
+    void initialize(int whichBlock) {
+        lock.lock();
+        try {
+            int[] pointers = new int[pointersPerBlock];
+            Arrays.fill(pointers, -1);
+            evictClean(capacity - 1);
+            pointersByBlock.put(whichBlock, pointers);
+            dirty.add(whichBlock);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets block <code>whichBlock</code>, which is being freed
+     */
+    void invalidate(int whichBlock) {
+        lock.lock();
+        try {
+            pointersByBlock.remove(whichBlock);
+            dirty.remove(whichBlock);
+            committing.remove(whichBlock);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the encoded contents of every dirty block to <code>records</code>
+     * and marks the blocks clean.  They stay cached until
+     * <code>committed</code> is called.
+     */
+    void snapshotDirty(List<Journal.Record> records) {
+        lock.lock();
+        try {
+            for (int whichBlock : dirty) {
+                ByteBuffer blockData = ByteBuffer.allocate(pointersPerBlock * Integer.BYTES);
+                for (int pointer : pointersByBlock.get(whichBlock)) {
+                    blockData.putInt(pointer);
+                }
+                records.add(new Journal.Record(disk.getBlockOffset(whichBlock), blockData.array()));
+            }
+            committing.addAll(dirty);
+            dirty.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called once the records of the last <code>snapshotDirty</code> are
+     * written in place, after which the blocks may be evicted and read back
+     * from the disk
+     */
+    void committed() {
+        lock.lock();
+        try {
+            committing.clear();
+            evictClean(capacity);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getDirtyCount() {
+        lock.lock();
+        try {
+            return dirty.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getHitCount() {
+        return hits;
+    }
+
+    long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Drops the least recently used clean blocks until at most
+     * <code>limit</code> are left or only dirty and committing blocks are left
+     */
+    private void evictClean(int limit) {
+        Iterator<Integer> blocks = pointersByBlock.keySet().iterator();
+        while (pointersByBlock.size() > limit && blocks.hasNext()) {
+            Integer whichBlock = blocks.next();
+            if (!dirty.contains(whichBlock) && !committing.contains(whichBlock)) {
+                blocks.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+
+/**
+ * Write-ahead journal of metadata updates.
+ *
+ * The free block list, the inodes and the indirect blocks are changed
+ * together by most operations, but they live in different places on the
+ * disk.  Each commit therefore first appends the new contents of every
+ * changed piece of metadata to the journal region as one transaction and,
+ * unless the caller defers it, forces it to the file; only then are the
+ * pieces written in place.  If the process or the machine stops half way
+ * through writing them in place, mounting the disk replays the transaction
+ * and the metadata is consistent again.
+ *
+ * The journal starts with a header naming the sequence number of its first
+ * transaction.  A transaction is a begin record (magic, sequence number,
+ * payload length), the payload (for each record its disk offset, length and
+ * bytes) and a commit record (magic, sequence number, CRC-32 of the
+ * payload).  Replay stops at the first transaction that is incomplete, out
+ * of sequence or fails its checksum.  When the journal is full the whole
+ * disk is forced, after which every transaction in it has reached its
+ * place and the journal starts over.
+ *
+ * A transaction larger than the whole journal cannot be made atomic by it.
+ * Formatting sizes the journal so that rewriting every inode and bitmap
+ * and the pointer blocks of one largest file fits; anything larger is
+ * written in place in an order that can leak blocks and inodes on a crash
+ * but never leaves one in use marked free.  See <code>applyUnjournaled</code>.
+ *
+ * Data blocks are not journaled.  <code>FileSystem</code> writes them to the
+ * disk before committing the metadata that refers to them.
+ *
+ * Not thread safe; <code>FileSystem</code> serializes commits.
+ */
+class Journal {
+    private static final int HEADER_MAGIC = 0x4A524E4C;  // "JRNL"
+    private static final int BEGIN_MAGIC = 0x54584247;   // "TXBG"
+    private static final int COMMIT_MAGIC = 0x5458434D;  // "TXCM"
+
+    static final int HEADER_SIZE = 16;
+    static final int BEGIN_SIZE = 16;
+    static final int COMMIT_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+
+    /**
+     * New contents of <code>bytes.length</code> bytes of the disk starting
+     * at disk offset <code>offset</code>
+     */
+    static final class Record {
+        private final int offset;
+        private final byte[] bytes;
+
+        Record(int offset, byte[] bytes) {
+            this.offset = offset;
+            this.bytes = bytes;
+        }
+
+        int getOffset() {
+            return offset;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+    }
+
+    private final Disk disk;
+    private final int size;
+
+    // sequence number the next transaction is written with
+    private long nextSequence;
+    // offset in the journal where the next transaction is written
+    private int position;
+
+    // reused for every transaction, grown when one does not fit
+    private ByteBuffer transaction = ByteBuffer.allocate(0);
+    private final CRC32 checksum = new CRC32();
+
+    private long commits;
+    private long checkpoints;
+    private long replayed;
+    private long unjournaled;
+
+    private Journal(Disk disk) {
+        this.disk = disk;
+        this.size = disk.getJournalSize();
+    }
+
+    /**
+     * Opens the journal of <code>disk</code>, replaying the transactions it
+     * holds.  A journal that has never been written is initialized.
+     *
+     * @param disk A mounted or freshly formatted disk with a journal
+     * @return The journal, empty and ready for commits
+     * @throws IOException If the disk cannot be written
+     */
+    static Journal open(Disk disk) throws IOException {
+        if (!disk.hasJournal()) {
+            throw new IllegalArgumentException("Journal::open:  disk has no journal");
+        }
+        Journal journal = new Journal(disk);
+        journal.replay();
+        return journal;
+    }
+
+    /**
+     * Writes <code>records</code> to the journal as one transaction and to
+     * their places on the disk.  When the transaction is larger than the
+     * whole journal the records are written with
+     * <code>applyUnjournaled</code> instead, which always forces them.
+     *
+     * @param force Whether to force the transaction before writing the
+     *              records in place; if not, a later force of the whole
+     *              disk makes it durable
+     * @throws IOException If the disk cannot be forced
+     */
+    void commit(List<Record> records, boolean force) throws IOException {
+        if (!append(records, force)) {
+            applyUnjournaled(records);
+            return;
+        }
+        apply(disk, records);
+    }
+
+    /**
+     * Writes a transaction too large for the journal in place.  A crash
+     * part way through can leave some of its inodes and pointer blocks old
+     * and some new, but no block or inode in use is ever marked free on the
+     * disk:  the free block list and the inode bitmap are first written
+     * with everything used before or after the transaction marked used,
+     * then the pointer blocks, then the inodes, and the two bitmaps as they
+     * end up last, with the disk forced between the steps.
+     *
+     * @throws IOException If the disk cannot be forced
+     */
+    private void applyUnjournaled(List<Record> records) throws IOException {
+        checkpoint();
+
+        List<Record> bitmaps = new ArrayList<>();
+        List<Record> pointerBlocks = new ArrayList<>();
+        List<Record> inodes = new ArrayList<>();
+        for (Record record : records) {
+            if (record.getOffset() == disk.getFreeListOffset()) {
+                bitmaps.add(record);
+                disk.writeMetadata(record.getOffset(), union(disk.readFreeBlockList(), record.getBytes()));
+            } else if (disk.hasInodeBitmap() && record.getOffset() == disk.getInodeBitmapOffset()) {
+                bitmaps.add(record);
+                disk.writeMetadata(record.getOffset(), union(disk.readInodeBitmap(), record.getBytes()));
+            } else if (record.getOffset() >= disk.getBlockOffset(0)) {
+                pointerBlocks.add(record);
+            } else {
+                inodes.add(record);
+            }
+        }
+        disk.sync();
+        apply(disk, pointerBlocks);
+        apply(disk, inodes);
+        disk.sync();
+        apply(disk, bitmaps);
+        disk.sync();
+        unjournaled++;
+    }
+
+    /**
+     * Returns a bitmap with every bit set in <code>current</code> or in
+     * <code>next</code>, which are the same length
+     */
+    private static byte[] union(byte[] current, byte[] next) {
+        byte[] bits = next.clone();
+        for (int i = 0; i < bits.length && i < current.length; i++) {
+            bits[i] |= current[i];
+        }
+        return bits;
+    }
+
+    /**
+     * Appends <code>records</code> as one transaction, and forces it to the
+     * file if <code>force</code> is set, without writing the records in
+     * place.  Makes room by checkpointing when the journal is full.
+     *
+     * @return false if the transaction does not fit in an empty journal
+     * @throws IOException If the disk cannot be forced
+     */
+    boolean append(List<Record> records, boolean force) throws IOException {
+        int payloadLength = 0;
+        for (Record record : records) {
+            payloadLength += RECORD_HEADER_SIZE + record.getBytes().length;
+        }
+        int transactionLength = BEGIN_SIZE + payloadLength + COMMIT_SIZE;
+
+        if (transactionLength > size - HEADER_SIZE) {
+            return false;
+        }
+        if (position + transactionLength > size) {
+            checkpoint();
+        }
+
+        if (transaction.capacity() < transactionLength) {
+            transaction = ByteBuffer.allocate(Math.max(transactionLength, 2 * transaction.capacity()));
+        }
+        transaction.clear();
+        transaction.putInt(BEGIN_MAGIC).putLong(nextSequence).putInt(payloadLength);
+        for (Record record : records) {
+            transaction.putInt(record.getOffset()).putInt(record.getBytes().length).put(record.getBytes());
+        }
+        checksum.reset();
+        checksum.update(transaction.array(), BEGIN_SIZE, payloadLength);
+        transaction.putInt(COMMIT_MAGIC).putLong(nextSequence).putInt((int) checksum.getValue());
+
+        disk.writeJournal(position, transaction.array(), transactionLength);
+        if (force) {
+            disk.forceJournal(position, transactionLength);
+        }
+
+        position += transactionLength;
+        nextSequence++;
+        commits++;
+        return true;
+    }
+
+    /**
+     * Forces the whole disk, so every journaled record is in place, and
+     * empties the journal
+     *
+     * @throws IOException If the disk cannot be forced
+     */
+    void checkpoint() throws IOException {
+        disk.sync();
+        reset(nextSequence);
+        checkpoints++;
+    }
+
+    long getCommitCount() {
+        return commits;
+    }
+
+    long getCheckpointCount() {
+        return checkpoints;
+    }
+
+    /**
+     * Number of transactions too large for the journal, written in place
+     * without it
+     */
+    long getUnjournaledCount() {
+        return unjournaled;
+    }
+
+    /**
+     * Number of transactions applied when the journal was opened
+     */
+    long getReplayedCount() {
+        return replayed;
+    }
+
+    /**
+     * Applies every complete transaction in sequence, then starts the
+     * journal over after them
+     */
+    private void replay() throws IOException {
+        byte[] headerBytes = new byte[HEADER_SIZE];
+        disk.readJournal(0, headerBytes);
+        ByteBuffer header = ByteBuffer.wrap(headerBytes);
+
+        if (header.getInt(0) != HEADER_MAGIC) {
+            reset(1);
+            return;
+        }
+
+        long sequence = header.getLong(8);
+        int cursor = HEADER_SIZE;
+
+        while (true) {
+            List<Record> records = readTransaction(cursor, sequence);
+            if (records == null) {
+                break;
+            }
+            apply(disk, records);
+            for (Record record : records) {
+                cursor += RECORD_HEADER_SIZE + record.getBytes().length;
+            }
+            cursor += BEGIN_SIZE + COMMIT_SIZE;
+            sequence++;
+            replayed++;
+        }
+
+        if (replayed > 0) {
+            disk.sync();
+        }
+        reset(sequence);
+    }
+
+    /**
+     * Returns the records of the transaction at <code>cursor</code>, or null
+     * if there is no complete transaction with sequence number
+     * <code>sequence</code> there
+     */
+    private List<Record> readTransaction(int cursor, long sequence) {
+        if (cursor + BEGIN_SIZE + COMMIT_SIZE > size) {
+            return null;
+        }
+
+        ByteBuffer begin = ByteBuffer.wrap(readJournal(cursor, BEGIN_SIZE));
+        int payloadLength = begin.getInt(12);
+        if (begin.getInt(0) != BEGIN_MAGIC || begin.getLong(4) != sequence ||
+                payloadLength < 0 || payloadLength > size - cursor - BEGIN_SIZE - COMMIT_SIZE) {
+            return null;
+        }
+
+        byte[] payload = readJournal(cursor + BEGIN_SIZE, payloadLength);
+        ByteBuffer commit = ByteBuffer.wrap(readJournal(cursor + BEGIN_SIZE + payloadLength, COMMIT_SIZE));
+        CRC32 checksum = new CRC32();
+        checksum.update(payload);
+        if (commit.getInt(0) != COMMIT_MAGIC || commit.getLong(4) != sequence ||
+                commit.getInt(12) != (int) checksum.getValue()) {
+            return null;
+        }
+
+        List<Record> records = new ArrayList<>();
+        ByteBuffer entries = ByteBuffer.wrap(payload);
+        while (entries.remaining() >= RECORD_HEADER_SIZE) {
+            int offset = entries.getInt();
+            int length = entries.getInt();
+            if (length < 0 || length > entries.remaining()) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            entries.get(bytes);
+            records.add(new Record(offset, bytes));
+        }
+        return entries.hasRemaining() ? null : records;
+    }
+
+    private byte[] readJournal(int cursor, int length) {
+        byte[] bytes = new byte[length];
+        disk.readJournal(cursor, bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a header naming <code>firstSequence</code>, which makes every
+     * transaction already in the journal stale
+     */
+    private void reset(long firstSequence) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(0, HEADER_MAGIC);
+        header.putLong(8, firstSequence);
+        disk.writeJournal(0, header.array());
+        disk.forceJournal(0, HEADER_SIZE);
+
+        nextSequence = firstSequence;
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * Writes each record at its place on the disk
+     */
+    static void apply(Disk disk, List<Record> records) {
+        for (Record record : records) {
+            disk.writeMetadata(record.getOffset(), record.getBytes());
+        }
+    }
+}
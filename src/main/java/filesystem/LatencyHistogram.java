@@ -0,0 +1,222 @@
+package filesystem;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Histogram of latencies in nanoseconds with buckets in the style of an HDR
+ * histogram:  every power of two is split into 16 equal buckets, so any
+ * value is reported within 1/16 of its true size, from 1 ns up to about
+ * eighteen minutes.
+ *
+ * Recording only increments counters and never allocates, so histograms
+ * can stay enabled on the hot path.  Readers may run at the same time as
+ * writers; the figures they compute are then off by the values recorded
+ * while they read.
+ */
+public final class LatencyHistogram implements LatencyHistogramMXBean {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values at and above 2^MAX_EXPONENT are counted in the last bucket
+    private static final int MAX_EXPONENT = 40;
+    private static final int NUM_BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records one latency; negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        totalNanos.addAndGet(value);
+        maxNanos.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Records the time elapsed since <code>startNanos</code>, a value of
+     * <code>System.nanoTime()</code>
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    @Override
+    public long getMeanNanos() {
+        long recorded = count.get();
+        return recorded == 0 ? 0 : totalNanos.get() / recorded;
+    }
+
+    /**
+     * Returns the latency below which <code>percentile</code> percent of the
+     * recorded latencies fall, rounded up to the end of its bucket
+     *
+     * @param percentile From 0 to 100
+     * @return The latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("LatencyHistogram::getValueAtPercentile:  " +
+                    percentile + " is not a percentile");
+        }
+
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                // the last bucket has no upper end
+                return i == NUM_BUCKETS - 1 ? maxNanos.get() : Math.min(highestValueIn(i), maxNanos.get());
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public long get50thPercentileNanos() {
+        return getValueAtPercentile(50);
+    }
+
+    @Override
+    public long get90thPercentileNanos() {
+        return getValueAtPercentile(90);
+    }
+
+    @Override
+    public long get99thPercentileNanos() {
+        return getValueAtPercentile(99);
+    }
+
+    @Override
+    public long get999thPercentileNanos() {
+        return getValueAtPercentile(99.9);
+    }
+
+    /**
+     * Copies the figures of the histogram as they are now
+     */
+    public Summary summarize() {
+        return new Summary(name, getCount(), getMeanNanos(), get50thPercentileNanos(),
+                get90thPercentileNanos(), get99thPercentileNanos(), get999thPercentileNanos(),
+                getMaxNanos());
+    }
+
+    /**
+     * Values below 16 get a bucket each; above that the bucket is chosen by
+     * the highest set bit and the four bits after it
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return NUM_BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long lowest = (long) (SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Figures of a histogram at one point in time
+     */
+    public static final class Summary {
+        private final String name;
+        private final long count;
+        private final long meanNanos;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+        private final long p999Nanos;
+        private final long maxNanos;
+
+        Summary(String name, long count, long meanNanos, long p50Nanos, long p90Nanos,
+                long p99Nanos, long p999Nanos, long maxNanos) {
+            this.name = name;
+            this.count = count;
+            this.meanNanos = meanNanos;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+            this.p999Nanos = p999Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanNanos() {
+            return meanNanos;
+        }
+
+        public long get50thPercentileNanos() {
+            return p50Nanos;
+        }
+
+        public long get90thPercentileNanos() {
+            return p90Nanos;
+        }
+
+        public long get99thPercentileNanos() {
+            return p99Nanos;
+        }
+
+        public long get999thPercentileNanos() {
+            return p999Nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + count + " calls, mean " + meanNanos + " ns, p50 " + p50Nanos +
+                    " ns, p90 " + p90Nanos + " ns, p99 " + p99Nanos + " ns, p99.9 " + p999Nanos +
+                    " ns, max " + maxNanos + " ns";
+        }
+    }
+}
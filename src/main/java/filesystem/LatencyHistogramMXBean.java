@@ -0,0 +1,22 @@
+package filesystem;
+
+
+/**
+ * JMX view of a <code>LatencyHistogram</code>, registered once per
+ * operation by <code>FileSystem.registerMBeans</code>
+ */
+public interface LatencyHistogramMXBean {
+    long getCount();
+
+    long getMeanNanos();
+
+    long get50thPercentileNanos();
+
+    long get90thPercentileNanos();
+
+    long get99thPercentileNanos();
+
+    long get999thPercentileNanos();
+
+    long getMaxNanos();
+}
@@ -0,0 +1,53 @@
+package filesystem;
+
+
+/**
+ * State of one open file descriptor:  the inode it refers to, the access
+ * mode it was opened with and its current position in the file.
+ */
+class OpenFile {
+    private final int descriptor;
+    private final int iNodeNumber;
+    private final INode inode;
+    private final OpenMode mode;
+    private final ReadAhead readAhead = new ReadAhead();
+    // volatile so seek and getPosition need no inode lock; like a POSIX
+    // file offset it is not meant to be shared by concurrent readers
+    private volatile long position;
+
+    OpenFile(int descriptor, int iNodeNumber, INode inode, OpenMode mode) {
+        this.descriptor = descriptor;
+        this.iNodeNumber = iNodeNumber;
+        this.inode = inode;
+        this.mode = mode;
+        this.position = 0;
+    }
+
+    int getDescriptor() {
+        return descriptor;
+    }
+
+    int getINodeNumber() {
+        return iNodeNumber;
+    }
+
+    INode getINode() {
+        return inode;
+    }
+
+    OpenMode getMode() {
+        return mode;
+    }
+
+    ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    long getPosition() {
+        return position;
+    }
+
+    void setPosition(long position) {
+        this.position = position;
+    }
+}
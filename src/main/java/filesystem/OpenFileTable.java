@@ -0,0 +1,98 @@
+package filesystem;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Table of the files that are currently open.
+ *
+ * Each call to open or create gets its own descriptor, allocated
+ * independently of inode numbers as the lowest descriptor not in use.
+ * Several descriptors may refer to the same inode; the table counts the
+ * references to each inode so the file system knows when the last
+ * descriptor for a file has been closed.
+ *
+ * Looking up a descriptor does not lock; opening and closing take a lock
+ * that guards descriptor allocation and the reference counts.
+ */
+class OpenFileTable {
+    private final Map<Integer, OpenFile> openFiles;
+    private final Map<Integer, Integer> referenceCounts;
+    private final BitSet usedDescriptors;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    OpenFileTable() {
+        this.openFiles = new ConcurrentHashMap<>();
+        this.referenceCounts = new HashMap<>();
+        this.usedDescriptors = new BitSet();
+    }
+
+    /**
+     * Allocates a descriptor for inode <code>iNodeNumber</code>
+     *
+     * @return The new open file entry
+     */
+    OpenFile open(int iNodeNumber, INode inode, OpenMode mode) {
+        lock.lock();
+        try {
+            int descriptor = usedDescriptors.nextClearBit(0);
+            OpenFile openFile = new OpenFile(descriptor, iNodeNumber, inode, mode);
+
+            usedDescriptors.set(descriptor);
+            openFiles.put(descriptor, openFile);
+            referenceCounts.merge(iNodeNumber, 1, Integer::sum);
+
+            return openFile;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the entry for <code>descriptor</code>, or null if it is not open
+     */
+    OpenFile get(int descriptor) {
+        return openFiles.get(descriptor);
+    }
+
+    /**
+     * Releases <code>descriptor</code>
+     *
+     * @return The entry that was released, or null if it was not open
+     */
+    OpenFile close(int descriptor) {
+        lock.lock();
+        try {
+            OpenFile openFile = openFiles.remove(descriptor);
+
+            if (openFile != null) {
+                usedDescriptors.clear(descriptor);
+                referenceCounts.computeIfPresent(openFile.getINodeNumber(),
+                        (iNodeNumber, count) -> count == 1 ? null : count - 1);
+            }
+            return openFile;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of open descriptors referring to <code>iNodeNumber</code>
+     */
+    int getReferenceCount(int iNodeNumber) {
+        lock.lock();
+        try {
+            return referenceCounts.getOrDefault(iNodeNumber, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        return openFiles.size();
+    }
+}
@@ -0,0 +1,27 @@
+package filesystem;
+
+
+/**
+ * Access requested when a file is opened
+ */
+public enum OpenMode {
+    READ(true, false),
+    WRITE(false, true),
+    READ_WRITE(true, true);
+
+    private final boolean readable;
+    private final boolean writable;
+
+    OpenMode(boolean readable, boolean writable) {
+        this.readable = readable;
+        this.writable = writable;
+    }
+
+    public boolean canRead() {
+        return readable;
+    }
+
+    public boolean canWrite() {
+        return writable;
+    }
+}
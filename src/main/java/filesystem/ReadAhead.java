@@ -0,0 +1,90 @@
+package filesystem;
+
+
+/**
+ * Access-pattern tracking of one open file, deciding which blocks to read
+ * ahead of the reader.
+ *
+ * A read that starts in the block the previous read ended in, or in the
+ * one after it, is sequential; anything else is random and turns read-ahead
+ * off until reads are sequential again.  While reads are sequential, the
+ * blocks up to <code>window</code> blocks past the last one read are
+ * prefetched.  When a read reaches a block that was prefetched, the window
+ * doubles if the block was in the cache by then and halves if it was not,
+ * either because the prefetch had not finished or because the block was
+ * evicted before it was used.
+ *
+ * Like the position of an <code>OpenFile</code>, not meant to be shared by
+ * concurrent readers.
+ */
+class ReadAhead {
+    static final int MIN_WINDOW = 4;
+
+    // last logical block read, or -1 before the first read
+    private int lastBlock = -1;
+    // blocks to keep prefetched past lastBlock; 0 while reads are random
+    private int window;
+    // logical block after the last one prefetched
+    private int prefetchedEnd;
+
+    // first block and number of blocks the last read asked to prefetch
+    private int prefetchStart;
+    private int prefetchCount;
+
+    /**
+     * Records a read of logical blocks <code>first</code> to
+     * <code>last</code> and decides what to prefetch next, available from
+     * <code>getPrefetchStart</code> and <code>getPrefetchCount</code>.
+     *
+     * @param hit Whether the first block of the read not read before was
+     *            already cached
+     * @param maxWindow Largest window to grow to
+     * @return Whether there is anything to prefetch
+     */
+    boolean onRead(int first, int last, boolean hit, int maxWindow) {
+        prefetchCount = 0;
+        boolean sequential = first == lastBlock || first == lastBlock + 1;
+
+        if (!sequential) {
+            lastBlock = last;
+            window = 0;
+            prefetchedEnd = 0;
+            return false;
+        }
+
+        int firstNew = lastBlock + 1;
+        if (window == 0) {
+            window = Math.min(MIN_WINDOW, maxWindow);
+        } else if (last >= firstNew && firstNew < prefetchedEnd) {
+            window = hit ? Math.min(window * 2, maxWindow) : Math.max(window / 2, MIN_WINDOW);
+        }
+        window = Math.min(window, maxWindow);
+        lastBlock = Math.max(lastBlock, last);
+
+        // top up once less than half the window is left ahead of the reader
+        int end = lastBlock + 1 + window;
+        if (prefetchedEnd - (lastBlock + 1) >= window / 2 || window == 0) {
+            return false;
+        }
+        prefetchStart = Math.max(prefetchedEnd, lastBlock + 1);
+        prefetchCount = end - prefetchStart;
+        prefetchedEnd = end;
+        return prefetchCount > 0;
+    }
+
+    int getLastBlock() {
+        return lastBlock;
+    }
+
+    int getPrefetchStart() {
+        return prefetchStart;
+    }
+
+    int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    int getWindow() {
+        return window;
+    }
+}
@@ -0,0 +1,34 @@
+package filesystem;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * Fixed set of read/write locks shared by all inodes.  Inode
+ * <code>n</code> is guarded by lock <code>n % stripes</code>, so operations
+ * on different files rarely contend while memory stays bounded no matter
+ * how many inodes there are.
+ */
+class StripedLocks {
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final ReentrantReadWriteLock[] locks;
+
+    StripedLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    StripedLocks(int stripes) {
+        locks = new ReentrantReadWriteLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Returns the lock guarding inode <code>iNodeNumber</code>
+     */
+    ReentrantReadWriteLock forINode(int iNodeNumber) {
+        return locks[Math.floorMod(iNodeNumber, locks.length)];
+    }
+}
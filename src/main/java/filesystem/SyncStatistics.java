@@ -0,0 +1,58 @@
+package filesystem;
+
+
+/**
+ * Snapshot of how often and for how long a file system forced its disk,
+ * used to compare the cost of the <code>DurabilityMode</code>s
+ */
+public final class SyncStatistics {
+    private final DurabilityMode mode;
+    private final long commits;
+    private final long syncs;
+    private final long totalSyncNanos;
+    private final long maxSyncNanos;
+
+    SyncStatistics(DurabilityMode mode, long commits, long syncs, long totalSyncNanos, long maxSyncNanos) {
+        this.mode = mode;
+        this.commits = commits;
+        this.syncs = syncs;
+        this.totalSyncNanos = totalSyncNanos;
+        this.maxSyncNanos = maxSyncNanos;
+    }
+
+    public DurabilityMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Number of metadata commits written to the disk
+     */
+    public long getCommitCount() {
+        return commits;
+    }
+
+    /**
+     * Number of times any part of the disk was forced to the file
+     */
+    public long getSyncCount() {
+        return syncs;
+    }
+
+    public long getTotalSyncNanos() {
+        return totalSyncNanos;
+    }
+
+    public long getMaxSyncNanos() {
+        return maxSyncNanos;
+    }
+
+    public long getAverageSyncNanos() {
+        return syncs == 0 ? 0 : totalSyncNanos / syncs;
+    }
+
+    @Override
+    public String toString() {
+        return mode + ": " + commits + " commits, " + syncs + " syncs, average " +
+                getAverageSyncNanos() / 1000 + " us, max " + maxSyncNanos / 1000 + " us";
+    }
+}
@@ -0,0 +1,53 @@
+package filesystem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncFileSystemTest {
+
+    @Test
+    void testOperationsCompleteInFlightTogether(@TempDir Path directory) throws Exception {
+        FileSystem fileSystem = FileSystem.format(directory.resolve("async.dsk").toString());
+        try (AsyncFileSystem async = new AsyncFileSystem(fileSystem, 2, 4)) {
+            List<CompletableFuture<String>> contents = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                String name = "file" + i;
+                String data = ("contents of " + name + " ").repeat(i + 1);
+                contents.add(async.createAsync(name)
+                        .thenCompose(fd -> async.writeAsync(fd, data).thenCompose(n -> async.closeAsync(fd)))
+                        .thenCompose(done -> async.openAsync(name))
+                        .thenCompose(async::readAsync));
+            }
+
+            for (int i = 0; i < contents.size(); i++) {
+                assertEquals(("contents of file" + i + " ").repeat(i + 1), contents.get(i).get(),
+                        "Every operation should complete although the queue holds only 4.");
+            }
+        }
+        fileSystem.unmount();
+    }
+
+    @Test
+    void testFailuresCompleteTheFutureExceptionally(@TempDir Path directory) throws IOException {
+        FileSystem fileSystem = FileSystem.format(directory.resolve("async.dsk").toString());
+        AsyncFileSystem async = new AsyncFileSystem(fileSystem);
+
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> async.openAsync("missing.txt").get());
+        assertInstanceOf(IOException.class, failure.getCause());
+
+        async.close();
+        failure = assertThrows(ExecutionException.class, () -> async.createAsync("late.txt").get());
+        assertInstanceOf(IOException.class, failure.getCause(), "A closed view should refuse new operations.");
+        fileSystem.unmount();
+    }
+}
@@ -0,0 +1,85 @@
+package filesystem;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockCacheTest {
+
+    private Disk disk;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        disk = new Disk();
+        disk.format();
+    }
+
+    private static byte[] blockOf(byte value) {
+        byte[] block = new byte[Disk.BLOCK_SIZE];
+        Arrays.fill(block, value);
+        return block;
+    }
+
+    @Test
+    void testRepeatedReadsHitTheCache() throws IOException {
+        BlockCache cache = new BlockCache(disk, 4);
+
+        byte[] block = new byte[Disk.BLOCK_SIZE];
+        cache.readBlock(7, block);
+        cache.readBlock(7, block);
+        cache.readBlock(7, block);
+
+        assertEquals(1, cache.getMissCount(), "Only the first read should go to the disk.");
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    void testWritesAreDeferredUntilFlush() throws IOException {
+        BlockCache cache = new BlockCache(disk, 4);
+
+        cache.writeBlock(blockOf((byte) 'a'), 3);
+        assertEquals(0, disk.readDataBlock(3)[0], "Write should stay in the cache.");
+        assertEquals(1, cache.getDirtyCount());
+
+        cache.flush();
+        assertEquals('a', disk.readDataBlock(3)[0], "Flush should write the block back.");
+        assertEquals(0, cache.getDirtyCount());
+    }
+
+    @Test
+    void testEvictionWritesBackDirtyBlocks() throws IOException {
+        BlockCache cache = new BlockCache(disk, 2);
+
+        cache.writeBlock(blockOf((byte) 'x'), 0);
+        byte[] block = new byte[Disk.BLOCK_SIZE];
+        cache.readBlock(1, block);
+        cache.readBlock(2, block);
+
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals('x', disk.readDataBlock(0)[0], "Evicted dirty block should be on disk.");
+        cache.readBlock(0, block);
+        assertEquals('x', block[0], "Block should be readable after eviction.");
+    }
+
+    @Test
+    void testReadBlocksCombinesCacheAndDisk() throws IOException {
+        BlockCache cache = new BlockCache(disk, 8);
+        disk.writeDataBlock(blockOf((byte) 'd'), 4);
+        disk.writeDataBlock(blockOf((byte) 'd'), 6);
+        cache.writeBlock(blockOf((byte) 'c'), 5);
+
+        byte[] data = new byte[3 * Disk.BLOCK_SIZE];
+        cache.readBlocks(new int[] {4, 5, 6}, data, 0);
+
+        assertEquals('d', data[0]);
+        assertEquals('c', data[Disk.BLOCK_SIZE], "The dirty cached copy should win over the disk.");
+        assertEquals('d', data[2 * Disk.BLOCK_SIZE]);
+        long misses = cache.getMissCount();
+        cache.readBlock(4, new byte[Disk.BLOCK_SIZE]);
+        assertEquals(misses, cache.getMissCount(), "Blocks read from the disk should now be cached.");
+    }
+}
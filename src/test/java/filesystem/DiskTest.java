@@ -0,0 +1,131 @@
+package filesystem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiskTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testGeometryIsReadBackFromSuperblock() throws IOException {
+        String image = directory.resolve("large-blocks.dsk").toString();
+        DiskGeometry geometry = new DiskGeometry(4096, 2048, 64);
+
+        FileSystem formatted = FileSystem.format(image, geometry);
+        int fd = formatted.create("big.txt");
+        String data = "z".repeat(3 * 4096 + 7);
+        formatted.write(fd, data);
+        formatted.close(fd);
+        formatted.unmount();
+
+        FileSystem mounted = FileSystem.mount(image);
+        assertEquals(geometry, mounted.getGeometry());
+        fd = mounted.open("big.txt");
+        assertEquals(data, mounted.read(fd));
+        assertEquals(1, mounted.getFragmentation("big.txt").getExtents());
+        assertEquals(2048 - 4, mounted.getFragmentationReport().getFreeBlocks());
+        mounted.unmount();
+    }
+
+    @Test
+    void testImageWithoutSuperblockUsesDefaultLayout() throws IOException {
+        String image = directory.resolve("legacy.dsk").toString();
+
+        // free list at offset 0, inodes right after it, as written before the superblock
+        ByteBuffer legacy = ByteBuffer.allocate(Disk.DISK_SIZE);
+        legacy.put(0, (byte) 0x01);
+        for (int i = 0; i < Disk.NUM_INODES; i++) {
+            int cursor = Disk.INODE_TABLE_OFFSET + Disk.INODE_SIZE * i + INode.FILE_NAME_SIZE;
+            legacy.putInt(cursor, i == 0 ? 5 : -1);
+            for (int j = 0; j < INode.NUM_BLOCK_POINTERS; j++) {
+                legacy.putInt(cursor + Integer.BYTES * (j + 1), i == 0 && j == 0 ? 0 : -1);
+            }
+        }
+        legacy.put(Disk.INODE_TABLE_OFFSET, "old.txt".getBytes());
+        legacy.put(Disk.DATA_REGION_OFFSET, "hello".getBytes());
+
+        try (RandomAccessFile file = new RandomAccessFile(image, "rw")) {
+            file.write(legacy.array());
+        }
+
+        FileSystem mounted = FileSystem.mount(image);
+        assertEquals(DiskGeometry.DEFAULT, mounted.getGeometry());
+        assertEquals("hello", mounted.read(mounted.open("old.txt")));
+        assertEquals(Disk.NUM_BLOCKS - 1, mounted.getFragmentationReport().getFreeBlocks());
+        mounted.unmount();
+    }
+
+    @Test
+    void testInvalidGeometryIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new DiskGeometry(1000, 2048, 64));
+        assertThrows(IllegalArgumentException.class, () -> new DiskGeometry(4096, 2047, 64));
+    }
+
+    @Test
+    void testBlockRunsAreCoalesced() throws IOException {
+        Disk disk = new Disk(directory.resolve("runs.dsk").toString());
+        disk.format();
+        int[] blocks = {5, 6, 7, 10, -1, 11};
+        ByteBuffer src = ByteBuffer.allocate(blocks.length * Disk.BLOCK_SIZE);
+        for (int i = 0; i < blocks.length; i++) {
+            src.put(i * Disk.BLOCK_SIZE, (byte) ('a' + i));
+        }
+
+        assertEquals(3, disk.writeBlocks(blocks, src), "5-7, 10 and 11 should take one transfer each.");
+        assertEquals(src.capacity(), src.position());
+        assertEquals('d', disk.readDataBlock(10)[0]);
+        assertEquals('f', disk.readDataBlock(11)[0]);
+
+        ByteBuffer dst = ByteBuffer.allocate(src.capacity());
+        dst.put(4 * Disk.BLOCK_SIZE, (byte) 'z');
+        assertEquals(3, disk.readBlocks(blocks, dst.position(0)));
+        for (int i = 0; i < blocks.length; i++) {
+            byte expected = blocks[i] < 0 ? (byte) 'z' : (byte) ('a' + i);
+            assertEquals(expected, dst.get(i * Disk.BLOCK_SIZE), "Skipped entries should be left alone.");
+        }
+        assertThrows(IllegalArgumentException.class, () -> disk.readBlocks(new int[] {Disk.NUM_BLOCKS}, dst.clear()));
+        disk.close();
+    }
+
+    @Test
+    void testCallerSuppliedBuffersAreReused() throws IOException {
+        Disk disk = new Disk(directory.resolve("reuse.dsk").toString());
+        disk.format();
+        INode written = new INode();
+        written.setFileName("kept.txt");
+        written.setSize(3);
+        written.setBlockPointer(0, 9);
+        disk.writeInode(written, 4);
+
+        INode target = new INode();
+        disk.readInode(4, target);
+        String name = target.getFileName();
+        disk.readInode(4, target);
+        assertSame(name, target.getFileName(), "An unchanged name should not be decoded again.");
+        assertEquals(9, target.getBlockPointer(0));
+        disk.readInode(5, target);
+        assertNull(target.getFileName());
+        assertEquals(-1, target.getBlockPointer(0));
+
+        BufferPool pool = new BufferPool(Disk.BLOCK_SIZE, 1, true);
+        ByteBuffer block = pool.acquire();
+        block.put(0, (byte) 'q');
+        disk.writeDataBlock(block, 9);
+        assertEquals(Disk.BLOCK_SIZE, block.position());
+        pool.release(block);
+        assertSame(block, pool.acquire(), "A released buffer should be handed out again.");
+        disk.readDataBlock(9, block.put(0, (byte) 0));
+        assertEquals('q', block.get(0));
+        assertThrows(IllegalArgumentException.class, () -> disk.readDataBlock(9, ByteBuffer.allocate(1)));
+        disk.close();
+    }
+}
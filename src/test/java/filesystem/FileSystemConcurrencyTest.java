@@ -0,0 +1,165 @@
+package filesystem;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileSystemConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int FILES_PER_THREAD = 100;
+
+    private FileSystem fileSystem;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        fileSystem = new FileSystem();
+    }
+
+    private static String randomText(Random random, int maxLength) {
+        StringBuilder text = new StringBuilder();
+        int length = 1 + random.nextInt(maxLength);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+
+    @Test
+    void testConcurrentClientsKeepDiskConsistent() throws Exception {
+        String shared = "shared data";
+        int sharedFd = fileSystem.create("shared.txt");
+        fileSystem.write(sharedFd, shared);
+        fileSystem.close(sharedFd);
+
+        Map<String, String> expected = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> results = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            final int threadId = t;
+            results.add(pool.submit(() -> {
+                Random random = new Random(threadId);
+                for (int i = 0; i < FILES_PER_THREAD; i++) {
+                    String name = "t" + threadId + "-" + i;
+                    String data = randomText(random, 4 * Disk.BLOCK_SIZE);
+
+                    int fd = fileSystem.create(name);
+                    fileSystem.write(fd, data);
+                    assertEquals(data, fileSystem.read(fd), "Own file should read back intact.");
+                    fileSystem.close(fd);
+
+                    int readFd = fileSystem.open("shared.txt", OpenMode.READ);
+                    assertEquals(shared, fileSystem.read(readFd), "Shared file should never change.");
+                    fileSystem.close(readFd);
+
+                    if (i % 2 == 0) {
+                        fileSystem.delete(name);
+                    } else {
+                        expected.put(name, data);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+        fileSystem.sync();
+
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            int fd = fileSystem.open(entry.getKey());
+            assertEquals(entry.getValue(), fileSystem.read(fd), entry.getKey() + " should be intact.");
+            fileSystem.close(fd);
+        }
+
+        FragmentationReport report = fileSystem.getFragmentationReport();
+        int usedBlocks = 0;
+        for (FragmentationReport.FileEntry file : report.getFiles()) {
+            usedBlocks += file.getBlocks();
+        }
+        assertEquals(expected.size() + 1, report.getFiles().size(), "Only surviving files should remain.");
+        assertEquals(Disk.NUM_BLOCKS, usedBlocks + report.getFreeBlocks(), "Every block is either free or owned by one file.");
+        assertEquals(0, fileSystem.getOpenFileCount());
+    }
+
+    @Test
+    void testConcurrentCommitsKeepIndirectBlocksIntact(@TempDir Path directory) throws Exception {
+        // each file has a single-indirect block, more of them than the cache holds
+        int filesPerThread = IndirectBlockCache.DEFAULT_CAPACITY / THREADS + 8;
+        int firstBlocks = INode.NUM_BLOCK_POINTERS + 1;
+        int appends = 4;
+        String image = directory.resolve("indirect.dsk").toString();
+        FileSystem formatted = FileSystem.format(image);
+        formatted.setDurabilityMode(DurabilityMode.NONE);
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int threadId = t;
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < filesPerThread; i++) {
+                    int fd = formatted.create("t" + threadId + "-" + i);
+                    for (int block = 0; block < firstBlocks; block++) {
+                        formatted.pwrite(fd, (long) block * Disk.BLOCK_SIZE, blockOf(threadId, i, block), 0, Disk.BLOCK_SIZE);
+                    }
+                    formatted.close(fd);
+                }
+                // every append changes the file's indirect block while other threads commit
+                for (int round = 0; round < appends; round++) {
+                    for (int i = 0; i < filesPerThread; i++) {
+                        int block = firstBlocks + round;
+                        int fd = formatted.open("t" + threadId + "-" + i, OpenMode.READ_WRITE);
+                        formatted.pwrite(fd, (long) block * Disk.BLOCK_SIZE, blockOf(threadId, i, block), 0, Disk.BLOCK_SIZE);
+                        formatted.close(fd);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        formatted.unmount();
+
+        FileSystem mounted = FileSystem.mount(image);
+        byte[] buffer = new byte[Disk.BLOCK_SIZE];
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < filesPerThread; i++) {
+                int fd = mounted.open("t" + t + "-" + i, OpenMode.READ);
+                assertEquals((long) (firstBlocks + appends) * Disk.BLOCK_SIZE, mounted.getFileSize(fd));
+                for (int block = 0; block < firstBlocks + appends; block++) {
+                    mounted.pread(fd, (long) block * Disk.BLOCK_SIZE, buffer, 0, buffer.length);
+                    assertArrayEquals(blockOf(t, i, block), buffer, "Block " + block + " of t" + t + "-" + i);
+                }
+                mounted.close(fd);
+            }
+        }
+        mounted.unmount();
+    }
+
+    private static byte[] blockOf(int threadId, int file, int block) {
+        byte[] data = new byte[Disk.BLOCK_SIZE];
+        Arrays.fill(data, (byte) (threadId * 31 + file * 7 + block));
+        return data;
+    }
+}
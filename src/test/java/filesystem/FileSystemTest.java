@@ -2,8 +2,21 @@ package filesystem;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -130,4 +143,432 @@ class FileSystemTest {
                 " does not match file descriptor to open file";
         assertEquals(expectedMessage, exception.getMessage(), "Exception message should match expected message.");
     }
+
+    @Test
+    void testRenameFileSuccessfully() throws IOException {
+        String oldName = "oldName.txt";
+        String newName = "newName.txt";
+        int fileDescriptor = fileSystem.create(oldName);
+        fileSystem.write(fileDescriptor, "renamed contents");
+        int iNodeNumber = fileSystem.getINodeNumber(fileDescriptor);
+        fileSystem.close(fileDescriptor);
+
+        fileSystem.rename(oldName, newName);
+
+        fileDescriptor = fileSystem.open(newName);
+        assertEquals(iNodeNumber, fileSystem.getINodeNumber(fileDescriptor), "Renamed file should keep its inode.");
+        assertEquals("renamed contents", fileSystem.read(fileDescriptor), "Renamed file should keep its contents.");
+        Exception exception = assertThrows(IOException.class, () -> fileSystem.open(oldName));
+        assertEquals("FileSystem::open: file not found", exception.getMessage(), "Old name should no longer exist.");
+    }
+
+    @Test
+    void testCreateReusesDeletedINode() throws IOException {
+        int first = fileSystem.create("first.txt");
+        int firstINode = fileSystem.getINodeNumber(first);
+        fileSystem.close(first);
+        int second = fileSystem.create("second.txt");
+        assertNotEquals(firstINode, fileSystem.getINodeNumber(second));
+        fileSystem.close(second);
+
+        fileSystem.delete("first.txt");
+
+        int third = fileSystem.create("third.txt");
+        assertEquals(firstINode, fileSystem.getINodeNumber(third), "Freed inode should be reused.");
+    }
+
+    @Test
+    void testFragmentationReportAfterDelete() throws IOException {
+        String block = "x".repeat(Disk.BLOCK_SIZE);
+        for (String name : new String[]{"a.txt", "b.txt", "c.txt"}) {
+            int fd = fileSystem.create(name);
+            fileSystem.write(fd, block.repeat(2));
+            fileSystem.close(fd);
+        }
+        fileSystem.delete("b.txt");
+
+        int fd = fileSystem.create("d.txt");
+        fileSystem.write(fd, block.repeat(3));
+        fileSystem.close(fd);
+
+        assertEquals(1, fileSystem.getFragmentation("d.txt").getExtents(), "File should not be split into the 2 block hole.");
+
+        FragmentationReport report = fileSystem.getFragmentationReport();
+        assertEquals(0, report.getFragmentedFileCount());
+        assertEquals(2, report.getFreeExtents(), "The hole and the tail of the disk should be free.");
+        assertEquals(Disk.NUM_BLOCKS - 7, report.getFreeBlocks());
+    }
+
+    @Test
+    void testRepeatedReadsAreServedFromCache() throws IOException {
+        int fd = fileSystem.create("hot.txt");
+        fileSystem.write(fd, "hot data");
+        fileSystem.close(fd);
+
+        fd = fileSystem.open("hot.txt");
+        long missesBefore = fileSystem.getBlockCache().getMissCount();
+        for (int i = 0; i < 5; i++) {
+            assertEquals("hot data", fileSystem.read(fd));
+        }
+        assertEquals(missesBefore, fileSystem.getBlockCache().getMissCount(), "Re-reads should not miss.");
+    }
+
+    @Test
+    void testSeveralFilesOpenAtOnce() throws IOException {
+        int first = fileSystem.create("first.txt");
+        int second = fileSystem.create("second.txt");
+        assertNotEquals(first, second, "Each open file should get its own descriptor.");
+
+        fileSystem.write(first, "one");
+        fileSystem.write(second, "two");
+
+        assertEquals("one", fileSystem.read(first));
+        assertEquals("two", fileSystem.read(second));
+        assertEquals(2, fileSystem.getOpenFileCount());
+    }
+
+    @Test
+    void testDeleteWhileOpenKeepsDataUntilLastClose() throws IOException {
+        int fd = fileSystem.create("open.txt");
+        fileSystem.write(fd, "still here");
+
+        fileSystem.delete("open.txt");
+        assertEquals("still here", fileSystem.read(fd), "Open descriptor should still read the data.");
+        assertThrows(IOException.class, () -> fileSystem.open("open.txt"));
+
+        fileSystem.close(fd);
+        int reused = fileSystem.create("next.txt");
+        assertEquals("", fileSystem.read(reused), "Reclaimed inode should start empty.");
+    }
+
+    @Test
+    void testWriteToReadOnlyDescriptor() throws IOException {
+        int fd = fileSystem.create("readonly.txt");
+        fileSystem.close(fd);
+
+        int readOnly = fileSystem.open("readonly.txt", OpenMode.READ);
+        Exception exception = assertThrows(IOException.class, () -> fileSystem.write(readOnly, "nope"));
+        assertEquals("Filesystem:write: file descriptor," + readOnly + " is not open for writing", exception.getMessage());
+    }
+
+    @Test
+    void testByteWriteKeepsWhitespaceAcrossBlocks() throws IOException {
+        int fd = fileSystem.create("spaces.txt");
+        byte[] data = (" ".repeat(Disk.BLOCK_SIZE - 1) + "x  \n").getBytes();
+
+        assertEquals(data.length, fileSystem.write(fd, data, 0, data.length));
+        assertEquals(data.length, fileSystem.getFileSize(fd));
+        assertEquals(new String(data), fileSystem.read(fd), "Spaces at block boundaries should be kept.");
+    }
+
+    @Test
+    void testPositionalReadAndWrite() throws IOException {
+        int fd = fileSystem.create("offsets.txt");
+        byte[] tail = "tail".getBytes();
+
+        fileSystem.pwrite(fd, Disk.BLOCK_SIZE + 10, tail, 0, tail.length);
+        assertEquals(Disk.BLOCK_SIZE + 14, fileSystem.getFileSize(fd));
+        assertEquals(0, fileSystem.getPosition(fd), "pwrite should not move the position.");
+
+        byte[] buffer = new byte[20];
+        assertEquals(14, fileSystem.pread(fd, Disk.BLOCK_SIZE, buffer, 0, buffer.length));
+        assertEquals(0, buffer[0], "The gap before the written bytes should read as zeros.");
+        assertEquals("tail", new String(buffer, 10, 4));
+        assertEquals(-1, fileSystem.pread(fd, Disk.BLOCK_SIZE + 14, buffer, 0, 1));
+    }
+
+    @Test
+    void testStreamsAndChannelShareThePosition() throws IOException {
+        int fd = fileSystem.create("stream.txt");
+        try (OutputStream out = fileSystem.getOutputStream(fd)) {
+            out.write("hello stream".getBytes());
+        }
+
+        fd = fileSystem.open("stream.txt");
+        SeekableByteChannel channel = fileSystem.getChannel(fd);
+        channel.position(6);
+        ByteBuffer buffer = ByteBuffer.allocate(6);
+        assertEquals(6, channel.read(buffer));
+        assertEquals("stream", new String(buffer.array()));
+        assertEquals(12, fileSystem.getPosition(fd));
+
+        fileSystem.seek(fd, 0);
+        InputStream in = fileSystem.getInputStream(fd);
+        assertEquals("hello stream", new String(in.readAllBytes()));
+        in.close();
+        assertEquals(0, fileSystem.getOpenFileCount(), "Closing the stream should close the descriptor.");
+    }
+
+    @Test
+    void testWritesAppendAtThePosition() throws IOException {
+        int fd = fileSystem.create("log.txt");
+        String line = "x".repeat(300) + "\n";
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(line.length(), fileSystem.write(fd, line));
+        }
+        assertEquals(line.repeat(5), fileSystem.read(fd));
+        assertEquals(1, fileSystem.getFragmentation("log.txt").getExtents(), "Appended blocks should follow the last block.");
+
+        fileSystem.seek(fd, 1);
+        fileSystem.write(fd, "yy");
+        assertEquals("x" + "yy" + line.repeat(5).substring(3), fileSystem.read(fd), "Overwrite should only change the written bytes.");
+    }
+
+    @Test
+    void testTruncateReleasesBlocks() throws IOException {
+        int fd = fileSystem.create("shrink.txt");
+        fileSystem.write(fd, "a".repeat(Disk.BLOCK_SIZE * 3));
+        int freeBefore = fileSystem.getFragmentationReport().getFreeBlocks();
+        long commits = fileSystem.getSyncStatistics().getCommitCount();
+
+        fileSystem.truncate(fd, 10);
+        assertEquals("a".repeat(10), fileSystem.read(fd));
+        assertEquals(freeBefore + 2, fileSystem.getFragmentationReport().getFreeBlocks());
+        assertTrue(fileSystem.getSyncStatistics().getCommitCount() > commits,
+                "Freed blocks should be committed before they can be reused.");
+
+        fileSystem.truncate(fd, 20);
+        assertEquals("a".repeat(10) + "\0".repeat(10), fileSystem.read(fd), "Bytes past the old end should read as zeros.");
+
+        SeekableByteChannel channel = fileSystem.getChannel(fd);
+        channel.truncate(5);
+        assertEquals(5, channel.size());
+        assertEquals(5, channel.position(), "Position past the new end should move to the end.");
+    }
+
+    @Test
+    void testSmallFilesAreStoredInTheINode(@TempDir Path directory) throws IOException {
+        String image = directory.resolve("inline.dsk").toString();
+        FileSystem formatted = FileSystem.format(image);
+        int freeBefore = formatted.getFragmentationReport().getFreeBlocks();
+        int fd = formatted.create("tiny.txt");
+        formatted.write(fd, "a few dozen bytes, ");
+        formatted.write(fd, "written twice");
+        assertEquals(freeBefore, formatted.getFragmentationReport().getFreeBlocks(), "A tiny file should use no block.");
+        formatted.close(fd);
+        formatted.unmount();
+
+        FileSystem mounted = FileSystem.mount(image);
+        fd = mounted.open("tiny.txt");
+        assertEquals("a few dozen bytes, written twice", mounted.read(fd), "Inline data should survive a remount.");
+
+        String grown = "a few dozen bytes, written twice" + "b".repeat(INode.INLINE_DATA_SIZE);
+        mounted.seek(fd, 32);
+        mounted.write(fd, "b".repeat(INode.INLINE_DATA_SIZE));
+        assertEquals(grown, mounted.read(fd), "Growing past the inode should keep the bytes.");
+        assertEquals(1, mounted.getFragmentation("tiny.txt").getBlocks());
+
+        mounted.truncate(fd, 5);
+        mounted.truncate(fd, 8);
+        assertEquals("a few\0\0\0", mounted.read(fd));
+        mounted.close(fd);
+        mounted.unmount();
+    }
+
+    @Test
+    void testLargeFileUsesIndirectBlocks() throws IOException {
+        int numBlocks = INode.NUM_BLOCK_POINTERS + DiskGeometry.DEFAULT.getPointersPerBlock() + 10;
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < numBlocks; i++) {
+            data.append(String.format("%-" + Disk.BLOCK_SIZE + "d", i));
+        }
+
+        int fd = fileSystem.create("large.txt");
+        assertEquals(data.length(), fileSystem.write(fd, data.toString()));
+        fileSystem.close(fd);
+
+        fd = fileSystem.open("large.txt");
+        assertEquals(data.toString(), fileSystem.read(fd), "Blocks past the direct pointers should read back.");
+        // data blocks plus the single-indirect, double-indirect and one second level block
+        assertEquals(numBlocks + 3, fileSystem.getFragmentation("large.txt").getBlocks());
+        assertEquals(1, fileSystem.getFragmentation("large.txt").getExtents(), "Indirect blocks should sit before their data.");
+
+        int freeBefore = fileSystem.getFragmentationReport().getFreeBlocks();
+        fileSystem.truncate(fd, Disk.BLOCK_SIZE);
+        assertEquals(freeBefore + numBlocks - 1, fileSystem.getFragmentationReport().getFreeBlocks(),
+                "Truncating should free the data blocks at once.");
+        fileSystem.close(fd);
+        fileSystem.unmount();
+
+        // freed indirect blocks are held back until the journal is checkpointed
+        FileSystem mounted = FileSystem.mount(Disk.RAW_DISK_NAME);
+        assertEquals(freeBefore + numBlocks + 2, mounted.getFragmentationReport().getFreeBlocks(),
+                "Truncating should free the data and indirect blocks.");
+        mounted.unmount();
+    }
+
+    @Test
+    void testMountKeepsFilesOfFormattedImage(@TempDir Path directory) throws IOException {
+        String image = directory.resolve("image.dsk").toString();
+        FileSystem formatted = FileSystem.format(image);
+        int fd = formatted.create("kept.txt");
+        formatted.write(fd, "survives a remount");
+        formatted.close(fd);
+        formatted.unmount();
+
+        FileSystem mounted = FileSystem.mount(image);
+        fd = mounted.open("kept.txt");
+        assertEquals("survives a remount", mounted.read(fd));
+        assertThrows(IOException.class, () -> mounted.create("kept.txt"), "Mounted index should know the file.");
+        mounted.unmount();
+
+        assertThrows(IOException.class, () -> FileSystem.mount(directory.resolve("missing.dsk").toString()));
+    }
+
+    @Test
+    void testDurabilityModesDecideWhenClosesForce() throws Exception {
+        fileSystem.setDurabilityMode(DurabilityMode.NONE);
+        long syncs = fileSystem.getSyncStatistics().getSyncCount();
+        int fd = fileSystem.create("lazy.txt");
+        fileSystem.write(fd, "not forced");
+        fileSystem.close(fd);
+        assertEquals(syncs, fileSystem.getSyncStatistics().getSyncCount(), "NONE should not force on close.");
+        assertEquals("not forced", fileSystem.read(fileSystem.open("lazy.txt")));
+
+        fileSystem.setDurabilityMode(DurabilityMode.SYNC_ON_CLOSE);
+        fd = fileSystem.create("eager.txt");
+        fileSystem.write(fd, "forced");
+        fileSystem.close(fd);
+        SyncStatistics statistics = fileSystem.getSyncStatistics();
+        assertTrue(statistics.getSyncCount() >= syncs + 2,
+                "SYNC_ON_CLOSE should force the data, then the journal, on close.");
+        assertTrue(statistics.getMaxSyncNanos() > 0);
+
+        fileSystem.setDurabilityMode(DurabilityMode.PERIODIC, 10);
+        syncs = fileSystem.getSyncStatistics().getSyncCount();
+        fd = fileSystem.create("periodic.txt");
+        fileSystem.write(fd, "forced later");
+        fileSystem.close(fd);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fileSystem.getSyncStatistics().getSyncCount() == syncs && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(fileSystem.getSyncStatistics().getSyncCount() > syncs, "PERIODIC should force in the background.");
+        fileSystem.setDurabilityMode(DurabilityMode.GROUP_COMMIT);
+    }
+
+    @Test
+    void testGroupCommitCloseDoesNotRideOnUnforcedCommit() throws Exception {
+        fileSystem.setDurabilityMode(DurabilityMode.GROUP_COMMIT);
+        AtomicBoolean running = new AtomicBoolean(true);
+        // sync() commits without forcing the journal, then forces the whole disk;
+        // with two syncing, one is often queued for the commit lock when a close asks
+        List<Thread> syncers = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            Thread syncer = new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        fileSystem.sync();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            syncer.start();
+            syncers.add(syncer);
+        }
+        try {
+            fileSystem.close(fileSystem.create("grouped.txt"));
+            for (int i = 0; i < 2000; i++) {
+                int fd = fileSystem.open("grouped.txt", OpenMode.WRITE);
+                fileSystem.write(fd, "forced with the group " + i);
+                long syncs = fileSystem.getSyncStatistics().getSyncCount();
+                fileSystem.close(fd);
+                assertTrue(fileSystem.getSyncStatistics().getSyncCount() > syncs,
+                        "A GROUP_COMMIT close should not return before a force covers it.");
+            }
+        } finally {
+            running.set(false);
+            for (Thread syncer : syncers) {
+                syncer.join();
+            }
+        }
+    }
+
+    @Test
+    void testMetricsCountOperationsAndTransfers() throws Exception {
+        FileSystemMetrics.Snapshot before = fileSystem.metrics();
+        int fd = fileSystem.create("measured.txt");
+        fileSystem.write(fd, "x".repeat(3 * Disk.BLOCK_SIZE));
+        fileSystem.read(fd);
+        fileSystem.close(fd);
+
+        FileSystemMetrics.Snapshot after = fileSystem.metrics();
+        assertEquals(1, after.getLatency(FileSystemMetrics.Operation.CREATE).getCount());
+        assertEquals(1, after.getLatency(FileSystemMetrics.Operation.WRITE).getCount());
+        assertEquals(1, after.getLatency(FileSystemMetrics.Operation.READ).getCount());
+        assertEquals(1, after.getLatency(FileSystemMetrics.Operation.CLOSE).getCount());
+        assertEquals(0, after.getLatency(FileSystemMetrics.Operation.DELETE).getCount());
+        assertTrue(after.getBlocksWritten() >= before.getBlocksWritten() + 3, "Close should write the data blocks.");
+        assertTrue(after.getInodesWritten() > before.getInodesWritten());
+        assertTrue(after.getBytesWritten() > before.getBytesWritten());
+        assertEquals(before.getFreeBlocks() - 3, after.getFreeBlocks());
+        assertEquals(before.getFreeInodes() - 1, after.getFreeInodes());
+
+        fileSystem.registerMBeans("metrics-test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName counters = new ObjectName("filesystem:type=FileSystem,name=\"metrics-test\"");
+            assertEquals(after.getFreeBlocks(), server.getAttribute(counters, "FreeBlocks"));
+            ObjectName create = new ObjectName("filesystem:type=Latency,name=\"metrics-test\",operation=create");
+            assertEquals(1L, server.getAttribute(create, "Count"));
+        } finally {
+            fileSystem.unmount();
+        }
+        assertTrue(ManagementFactory.getPlatformMBeanServer()
+                .queryNames(new ObjectName("filesystem:name=\"metrics-test\",*"), null).isEmpty(),
+                "Unmount should unregister the MBeans.");
+    }
+
+    @Test
+    void testDirectoriesNestAndSurviveRemount(@TempDir Path directory) throws IOException {
+        String image = directory.resolve("tree.dsk").toString();
+        FileSystem formatted = FileSystem.format(image);
+        formatted.mkdir("/a");
+        formatted.mkdir("/a/b");
+        int fd = formatted.create("/a/b/c.txt");
+        formatted.write(fd, "deep");
+        formatted.close(fd);
+        formatted.close(formatted.create("c.txt"));
+
+        assertEquals(List.of("a", "c.txt"), formatted.list("/"));
+        assertEquals(List.of("c.txt"), formatted.list("a/b"));
+        assertThrows(IOException.class, () -> formatted.create("/missing/c.txt"));
+        assertThrows(IOException.class, () -> formatted.open("/a/b"), "A directory cannot be opened as a file.");
+        assertThrows(IOException.class, () -> formatted.rmdir("/a"), "Only empty directories can be removed.");
+        assertThrows(IOException.class, () -> formatted.rename("/a", "/a/b/a"), "A directory cannot move into itself.");
+        formatted.unmount();
+
+        FileSystem mounted = FileSystem.mount(image);
+        assertEquals("deep", mounted.read(mounted.open("/a/b/c.txt")));
+        mounted.rename("/a/b/c.txt", "/a/moved.txt");
+        assertEquals(List.of("b", "moved.txt"), mounted.list("/a"));
+        mounted.rmdir("/a/b");
+        assertEquals(List.of("moved.txt"), mounted.list("/a"));
+        assertTrue(mounted.getFragmentationReport().getFiles().stream()
+                .anyMatch(file -> file.getFileName().equals("a/moved.txt")));
+        mounted.unmount();
+    }
+
+    @Test
+    void testPathsWithoutANameAreRejected(@TempDir Path directory) throws IOException {
+        String image = directory.resolve("names.dsk").toString();
+        FileSystem formatted = FileSystem.format(image);
+        formatted.mkdir("/a");
+        formatted.close(formatted.create("/a/kept.txt"));
+
+        for (String path : new String[] {"", "/", "a/", "/a/", "/a/ "}) {
+            Exception exception = assertThrows(IOException.class, () -> formatted.create(path), path);
+            assertEquals("FileSystem::create: " + path + " does not end in a name", exception.getMessage());
+            assertThrows(IOException.class, () -> formatted.mkdir(path), path);
+            assertThrows(IOException.class, () -> formatted.rename("/a/kept.txt", path), path);
+        }
+        formatted.unmount();
+
+        FileSystem mounted = FileSystem.mount(image);
+        assertEquals(List.of("a"), mounted.list("/"));
+        assertEquals(List.of("kept.txt"), mounted.list("/a"), "No entry without a name should have been made.");
+        mounted.unmount();
+    }
 }
@@ -0,0 +1,92 @@
+package filesystem;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FreeBlockListTest {
+
+    @Test
+    void testByteLayoutRoundTrip() {
+        FreeBlockList freeBlockList = new FreeBlockList();
+        freeBlockList.allocateBlock(0);
+        freeBlockList.allocateBlock(17);
+        freeBlockList.allocateBlock(Disk.NUM_BLOCKS - 1);
+
+        byte[] bytes = freeBlockList.getFreeBlockList();
+        assertEquals(0x01, bytes[0], "Block 0 is bit 0 of byte 0.");
+        assertEquals(0x02, bytes[2], "Block 17 is bit 1 of byte 2.");
+        assertEquals((byte) 0x80, bytes[bytes.length - 1], "Last block is bit 7 of the last byte.");
+
+        FreeBlockList reloaded = new FreeBlockList();
+        reloaded.setFreeBlockList(bytes);
+        assertTrue(reloaded.isBlockAllocated(17), "Block 17 should be allocated after reload.");
+        assertFalse(reloaded.isBlockAllocated(16), "Block 16 should be free after reload.");
+        assertEquals(Disk.NUM_BLOCKS - 3, reloaded.getFreeBlockCount(), "Free count should be rebuilt on load.");
+    }
+
+    @Test
+    void testAllocateUsesNextFitCursor() {
+        FreeBlockList freeBlockList = new FreeBlockList();
+
+        assertArrayEquals(new int[]{0, 1, 2}, freeBlockList.allocate(3));
+        freeBlockList.deallocateBlock(1);
+
+        assertArrayEquals(new int[]{3, 4}, freeBlockList.allocate(2), "Search should resume after the last allocation.");
+        assertEquals(Disk.NUM_BLOCKS - 4, freeBlockList.getFreeBlockCount());
+    }
+
+    @Test
+    void testAllocateWrapsAroundAndFailsWhenFull() {
+        FreeBlockList freeBlockList = new FreeBlockList();
+        freeBlockList.allocate(Disk.NUM_BLOCKS - 1);
+        freeBlockList.deallocateBlock(5);
+
+        assertArrayEquals(new int[]{Disk.NUM_BLOCKS - 1, 5}, freeBlockList.allocate(2));
+        assertEquals(0, freeBlockList.getFreeBlockCount());
+        assertThrows(IllegalStateException.class, () -> freeBlockList.allocate(1));
+    }
+
+    @Test
+    void testAllocateContiguousPicksBestFitRun() {
+        FreeBlockList freeBlockList = new FreeBlockList();
+        freeBlockList.allocate(20);
+        // free runs: 2..4 (3 blocks), 8..9 (2 blocks), 20..end
+        for (int block : new int[]{2, 3, 4, 8, 9}) {
+            freeBlockList.deallocateBlock(block);
+        }
+
+        assertArrayEquals(new int[]{8, 9}, freeBlockList.allocateContiguous(2), "Smallest run that fits should be used.");
+        assertArrayEquals(new int[]{20, 21, 22, 23}, freeBlockList.allocateContiguous(4), "Short runs should be skipped.");
+    }
+
+    @Test
+    void testAllocateRunStopsAtAllocatedBlock() {
+        FreeBlockList freeBlockList = new FreeBlockList();
+        freeBlockList.allocateBlock(13);
+
+        assertArrayEquals(new int[]{10, 11, 12}, freeBlockList.allocateRun(10, 5));
+        assertArrayEquals(new int[0], freeBlockList.allocateRun(13, 5), "An allocated start block should give an empty run.");
+        assertEquals(Disk.NUM_BLOCKS - 4, freeBlockList.getFreeBlockCount());
+    }
+
+    @Test
+    void testHeldBlockIsFreeOnDiskButNotAllocated() {
+        FreeBlockList freeBlockList = new FreeBlockList();
+        freeBlockList.allocate(3);
+        freeBlockList.snapshotIfDirty();
+
+        freeBlockList.holdBlock(1);
+        byte[] onDisk = freeBlockList.snapshotIfDirty();
+        assertNotNull(onDisk, "Holding a block should change the list on the disk.");
+        assertEquals(0b101, onDisk[0]);
+        assertTrue(freeBlockList.isBlockAllocated(1));
+        assertArrayEquals(new int[]{3}, freeBlockList.allocate(1), "A held block should not be handed out.");
+        freeBlockList.snapshotIfDirty();
+
+        freeBlockList.releaseHeldBlocks(freeBlockList.getHeldBlocks());
+        assertFalse(freeBlockList.isBlockAllocated(1));
+        assertNull(freeBlockList.snapshotIfDirty(), "Releasing a held block should not change the list on the disk.");
+        assertEquals(Disk.NUM_BLOCKS - 3, freeBlockList.getFreeBlockCount());
+    }
+}
@@ -0,0 +1,105 @@
+package filesystem;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class INodeCacheTest {
+
+    private Disk disk;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        disk = new Disk();
+        disk.format();
+    }
+
+    @Test
+    void testDirtyINodeIsWrittenOnlyOnCommit() throws IOException {
+        INodeCache cache = INodeCache.load(disk);
+        INode inode = new INode();
+        inode.setFileName("cached.txt");
+        inode.setSize(10);
+        inode.setBlockPointer(0, 42);
+
+        cache.put(5, inode);
+        assertNull(disk.readInode(5).getFileName(), "Inode should not be written before a commit.");
+
+        List<Journal.Record> records = new ArrayList<>();
+        cache.snapshotDirty(records);
+        assertEquals(1, records.size(), "Only the dirty inode should be recorded.");
+        assertFalse(cache.isDirty(5));
+        Journal.apply(disk, records);
+
+        INode onDisk = disk.readInode(5);
+        assertEquals("cached.txt", onDisk.getFileName().trim());
+        assertEquals(42, onDisk.getBlockPointer(0));
+    }
+
+    @Test
+    void testLastINodeRoundTrip() throws IOException {
+        INodeCache cache = INodeCache.load(disk);
+        INode last = cache.get(Disk.NUM_INODES - 1);
+        last.setFileName("last.txt");
+        last.setSize(1234);
+        cache.markDirty(Disk.NUM_INODES - 1);
+
+        List<Journal.Record> records = new ArrayList<>();
+        cache.snapshotDirty(records);
+        Journal.apply(disk, records);
+
+        INode onDisk = INodeCache.load(disk).get(Disk.NUM_INODES - 1);
+        assertEquals("last.txt", onDisk.getFileName().trim());
+        assertEquals(1234, onDisk.getSize());
+        assertNull(disk.readInode(0).getFileName());
+        assertEquals(1, cache.getLoadCount(), "Only the inode asked for should be decoded.");
+    }
+
+    @Test
+    void testInodeTableRoundTrip() throws IOException {
+        INode[] table = disk.readInodeTable();
+        assertEquals(Disk.NUM_INODES, table.length);
+
+        table[Disk.NUM_INODES - 1].setFileName("last.txt");
+        table[Disk.NUM_INODES - 1].setSize(1234);
+        disk.writeInodeTable(table);
+
+        INode last = disk.readInode(Disk.NUM_INODES - 1);
+        assertEquals("last.txt", last.getFileName().trim());
+        assertEquals(1234, last.getSize());
+        assertNull(disk.readInode(0).getFileName());
+    }
+
+    @Test
+    void testMountDecodesOnlyInodesInUse(@TempDir Path directory) throws IOException {
+        String image = directory.resolve("bitmap.dsk").toString();
+        FileSystem fileSystem = FileSystem.format(image, new DiskGeometry(Disk.BLOCK_SIZE, 1024, 10_000));
+        for (String name : new String[] {"a.txt", "b.txt", "c.txt"}) {
+            fileSystem.close(fileSystem.create(name));
+        }
+        fileSystem.delete("b.txt");
+        fileSystem.unmount();
+
+        Disk mounted = new Disk(image);
+        mounted.mount();
+        assertTrue(mounted.hasInodeBitmap());
+        INodeBitmap bitmap = INodeBitmap.load(mounted);
+        assertEquals(10_000 - 2, bitmap.getFreeCount(), "The bitmap should survive the unmount.");
+        assertTrue(bitmap.isUsed(0));
+        assertFalse(bitmap.isUsed(1), "A deleted file's inode is free again.");
+        assertEquals(1, bitmap.findFree());
+
+        INodeCache cache = INodeCache.load(mounted);
+        FileNameIndex index = FileNameIndex.build(cache, bitmap);
+        assertEquals(2, cache.getLoadCount(), "Only the inodes in use should be decoded.");
+        assertEquals(2, index.lookup("c.txt"));
+        mounted.close();
+    }
+}
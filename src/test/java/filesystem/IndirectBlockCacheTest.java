@@ -0,0 +1,45 @@
+package filesystem;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndirectBlockCacheTest {
+
+    private Disk disk;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        disk = new Disk();
+        disk.format();
+    }
+
+    @Test
+    void testSnapshottedBlocksStayCachedUntilCommitted() throws IOException {
+        IndirectBlockCache cache = new IndirectBlockCache(disk, 1);
+        cache.initialize(100);
+        cache.set(100, 0, 7);
+        cache.initialize(101);
+        cache.set(101, 0, 8);
+
+        List<Journal.Record> records = new ArrayList<>();
+        cache.snapshotDirty(records);
+        assertEquals(2, records.size());
+        assertEquals(0, cache.getDirtyCount());
+
+        cache.get(102);
+        assertEquals(7, cache.get(100)[0], "A block not yet written in place must not be read back from the disk.");
+        assertEquals(8, cache.get(101)[0]);
+
+        Journal.apply(disk, records);
+        cache.committed();
+        long misses = cache.getMissCount();
+        assertEquals(7, cache.get(100)[0], "Once written in place the block reads back from the disk.");
+        assertTrue(cache.getMissCount() > misses, "Committed blocks past the capacity should have been evicted.");
+    }
+}
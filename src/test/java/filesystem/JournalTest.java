@@ -0,0 +1,164 @@
+package filesystem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Formats an image holding "a.txt" and journals, without applying, a
+     * transaction renaming it to "b.txt", as if the process stopped right
+     * after the journal was forced
+     */
+    private String imageWithPendingRename() throws IOException {
+        String image = directory.resolve("journaled.dsk").toString();
+        FileSystem formatted = FileSystem.format(image);
+        int fd = formatted.create("a.txt");
+        formatted.write(fd, "hello");
+        formatted.close(fd);
+        formatted.unmount();
+
+        Disk disk = new Disk(image);
+        disk.mount();
+        INode renamed = disk.readInode(0);
+        renamed.setFileName("b.txt");
+        Journal journal = Journal.open(disk);
+        assertTrue(journal.append(List.of(new Journal.Record(disk.getInodeOffset(0), Disk.encodeInode(renamed))), true));
+        assertEquals("a.txt", disk.readInode(0).getFileName().trim());
+        disk.close();
+        return image;
+    }
+
+    @Test
+    void testCommittedTransactionIsReplayedOnMount() throws IOException {
+        FileSystem mounted = FileSystem.mount(imageWithPendingRename());
+
+        assertEquals("hello", mounted.read(mounted.open("b.txt")));
+        assertThrows(IOException.class, () -> mounted.open("a.txt"));
+        mounted.unmount();
+    }
+
+    @Test
+    void testTornTransactionIsIgnored() throws IOException {
+        String image = imageWithPendingRename();
+
+        // flip a byte of the payload so the checksum in the commit record fails
+        Disk disk = new Disk(image);
+        disk.mount();
+        int payloadByte = Journal.HEADER_SIZE + Journal.BEGIN_SIZE + Journal.RECORD_HEADER_SIZE;
+        byte[] bytes = new byte[1];
+        disk.readJournal(payloadByte, bytes);
+        bytes[0] ^= 0x5A;
+        disk.writeJournal(payloadByte, bytes);
+        disk.close();
+
+        FileSystem mounted = FileSystem.mount(image);
+        assertEquals("hello", mounted.read(mounted.open("a.txt")));
+        assertThrows(IOException.class, () -> mounted.open("b.txt"));
+        mounted.unmount();
+    }
+
+    /**
+     * Frees a file's single-indirect block, then writes files that would
+     * reuse it, leaving the journal with the old pointer block record
+     */
+    private FileSystem fileSystemWithFreedPointerBlock(String image) throws IOException {
+        FileSystem fileSystem = FileSystem.format(image);
+        int fd = fileSystem.create("a");
+        fileSystem.write(fd, "a".repeat(40 * Disk.BLOCK_SIZE));
+        fileSystem.close(fd);
+        fd = fileSystem.open("a", OpenMode.READ_WRITE);
+        fileSystem.truncate(fd, 0);
+        fileSystem.close(fd);
+        fileSystem.delete("a");
+
+        fd = fileSystem.create("filler");
+        fileSystem.write(fd, "f".repeat(32 * Disk.BLOCK_SIZE));
+        fileSystem.close(fd);
+        fd = fileSystem.create("b");
+        fileSystem.write(fd, "b".repeat(8 * Disk.BLOCK_SIZE));
+        fileSystem.close(fd);
+        return fileSystem;
+    }
+
+    @Test
+    void testReplayDoesNotOverwriteReusedPointerBlock() throws IOException {
+        String image = directory.resolve("reused.dsk").toString();
+        FileSystem fileSystem = fileSystemWithFreedPointerBlock(image);
+
+        // the image as a crash would leave it, with the journal not yet checkpointed
+        Path crashed = directory.resolve("crashed.dsk");
+        Files.copy(Path.of(image), crashed);
+        fileSystem.unmount();
+
+        for (String copy : new String[] {image, crashed.toString()}) {
+            FileSystem mounted = FileSystem.mount(copy);
+            assertEquals("b".repeat(8 * Disk.BLOCK_SIZE), mounted.read(mounted.open("b")), copy);
+            assertEquals("f".repeat(32 * Disk.BLOCK_SIZE), mounted.read(mounted.open("filler")), copy);
+            mounted.unmount();
+        }
+    }
+
+    @Test
+    void testCleanUnmountLeavesNothingToReplay() throws IOException {
+        String image = directory.resolve("clean.dsk").toString();
+        fileSystemWithFreedPointerBlock(image).unmount();
+
+        Disk disk = new Disk(image);
+        disk.mount();
+        assertEquals(0, Journal.open(disk).getReplayedCount(), "A clean unmount should empty the journal.");
+        disk.close();
+    }
+
+    @Test
+    void testTransactionLargerThanJournalIsWrittenInPlace() throws IOException {
+        Disk disk = new Disk(directory.resolve("oversized.dsk").toString());
+        disk.format();
+        Journal journal = Journal.open(disk);
+
+        int blocks = disk.getJournalSize() / Disk.BLOCK_SIZE + 8;
+        List<Journal.Record> records = new ArrayList<>();
+        FreeBlockList freeList = new FreeBlockList(disk.getNumBlocks());
+        for (int block = 0; block < blocks; block++) {
+            byte[] pointers = new byte[Disk.BLOCK_SIZE];
+            Arrays.fill(pointers, (byte) block);
+            records.add(new Journal.Record(disk.getBlockOffset(block), pointers));
+            freeList.allocateBlock(block);
+        }
+        records.add(0, new Journal.Record(disk.getFreeListOffset(), freeList.getFreeBlockList()));
+
+        long syncs = disk.getSyncCount();
+        journal.commit(records, false);
+        assertEquals(1, journal.getUnjournaledCount());
+        assertTrue(disk.getSyncCount() > syncs, "Records written without the journal should be forced.");
+        assertArrayEquals(freeList.getFreeBlockList(), disk.readFreeBlockList());
+        for (int block = 0; block < blocks; block++) {
+            assertEquals((byte) block, disk.readDataBlock(block)[Disk.BLOCK_SIZE - 1]);
+        }
+        disk.close();
+    }
+
+    @Test
+    void testJournalHoldsAWholeInodeTable() {
+        DiskGeometry fewInodes = new DiskGeometry(Disk.BLOCK_SIZE, 1024, 64);
+        assertEquals(Disk.JOURNAL_SIZE / Disk.BLOCK_SIZE, Disk.journalBlocksFor(fewInodes));
+
+        for (DiskGeometry geometry : new DiskGeometry[] {DiskGeometry.DEFAULT,
+                new DiskGeometry(Disk.BLOCK_SIZE, 1024, 10_000)}) {
+            long inodeTable = (long) Disk.INODE_RECORD_SIZE * geometry.getNumInodes();
+            assertTrue((long) Disk.journalBlocksFor(geometry) * Disk.BLOCK_SIZE > inodeTable, geometry.toString());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package filesystem;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testPercentilesAreWithinOneSixteenth() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (long nanos = 1; nanos <= 100_000; nanos++) {
+            histogram.record(nanos);
+        }
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000, histogram.getMaxNanos());
+        assertEquals(50_000, histogram.getMeanNanos());
+        assertEquals(50_000, histogram.get50thPercentileNanos(), 50_000 / 16.0);
+        assertEquals(99_000, histogram.get99thPercentileNanos(), 99_000 / 16.0);
+        assertTrue(histogram.get50thPercentileNanos() >= 50_000, "Percentiles round up to the bucket end.");
+        assertEquals(100_000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void testSmallAndHugeValues() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        assertEquals(0, histogram.get99thPercentileNanos(), "An empty histogram reports 0.");
+
+        histogram.record(-5);
+        histogram.record(3);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.getValueAtPercentile(0));
+        assertEquals(3, histogram.get50thPercentileNanos());
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getValueAtPercentile(101));
+    }
+}
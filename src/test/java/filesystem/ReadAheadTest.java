@@ -0,0 +1,73 @@
+package filesystem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadAheadTest {
+
+    @Test
+    void testWindowAdaptsAndRandomAccessTurnsItOff() {
+        ReadAhead readAhead = new ReadAhead();
+
+        assertTrue(readAhead.onRead(0, 0, false, 16), "A read from the start is sequential.");
+        assertEquals(1, readAhead.getPrefetchStart());
+        assertEquals(ReadAhead.MIN_WINDOW, readAhead.getPrefetchCount());
+
+        assertTrue(readAhead.onRead(1, 3, true, 16));
+        assertEquals(2 * ReadAhead.MIN_WINDOW, readAhead.getWindow(), "A prefetched block in the cache grows the window.");
+        assertEquals(5, readAhead.getPrefetchStart(), "Blocks already prefetched are not asked for again.");
+
+        readAhead.onRead(4, 5, false, 16);
+        assertEquals(ReadAhead.MIN_WINDOW, readAhead.getWindow(), "A prefetched block missing from the cache shrinks it.");
+
+        assertFalse(readAhead.onRead(40, 41, true, 16));
+        assertEquals(0, readAhead.getWindow(), "Random access turns read-ahead off.");
+        assertTrue(readAhead.onRead(42, 42, false, 16), "Sequential reads turn it back on.");
+    }
+
+    @Test
+    void testSequentialReadsArePrefetched(@TempDir Path directory) throws IOException, InterruptedException {
+        FileSystem fileSystem = FileSystem.format(directory.resolve("read-ahead.dsk").toString());
+        byte[] data = new byte[200 * Disk.BLOCK_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i / Disk.BLOCK_SIZE);
+        }
+        int fd = fileSystem.create("stream.bin");
+        fileSystem.write(fd, data, 0, data.length);
+        fileSystem.close(fd);
+
+        BlockCache cache = fileSystem.getBlockCache();
+        fd = fileSystem.open("stream.bin");
+        byte[] chunk = new byte[Disk.BLOCK_SIZE];
+        byte[] copy = new byte[data.length];
+        for (int done = 0; done < data.length; done += chunk.length) {
+            assertEquals(chunk.length, fileSystem.read(fd, chunk, 0, chunk.length));
+            System.arraycopy(chunk, 0, copy, done, chunk.length);
+            if (done == 4 * Disk.BLOCK_SIZE) {
+                for (int wait = 0; wait < 100 && cache.getPrefetchCount() == 0; wait++) {
+                    Thread.sleep(10);
+                }
+            }
+        }
+
+        assertArrayEquals(data, copy);
+        assertTrue(cache.getPrefetchCount() > 0, "Blocks ahead of the reader should have been prefetched.");
+        assertTrue(cache.getMissCount() < 200, "Some reads should have found their block prefetched.");
+        fileSystem.close(fd);
+        fileSystem.unmount();
+
+        FileSystem mounted = FileSystem.mount(directory.resolve("read-ahead.dsk").toString());
+        mounted.setReadAhead(0);
+        fd = mounted.open("stream.bin");
+        while (mounted.read(fd, chunk, 0, chunk.length) > 0) {
+            // read to the end
+        }
+        assertEquals(0, mounted.getBlockCache().getPrefetchCount(), "A window of 0 turns read-ahead off.");
+        mounted.unmount();
+    }
+}